@@ -0,0 +1,109 @@
+package frc4277.vision.pipelines;
+
+import com.sun.management.ThreadMXBean;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of ContourPipeline's per-contour analysis, gc.alloc.rate.norm from the gc profiler should be 0 B/op.
+ * Setup fails the run when a warmed up {@link #analyseContours()} allocates at all.
+ * {@link #findContours()} is there for comparison, its Java binding allocates a MatOfPoint per contour.
+ * With blobLabelling it finds contours through connected component labelling instead, @Setup checks that both modes
+ * pick the same target.
+ * <p>
+ * The sample frames are rendered. To measure a frame from the field, pass a {@link frc4277.vision.replay.FrameRecording}
+ * as the frame, see {@link SampleFrames#load}: java -jar build/libs/*-jmh.jar ContourAllocation -p
+ * frameName=/home/pi/match.rec#120
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ContourAllocationBenchmark {
+    // Enough for the JIT to compile analyseContours, allocations it can eliminate are not counted
+    private static final int WARMUP_CALLS = 10_000;
+    private static final int CHECKED_CALLS = 100;
+
+    @Param({SampleFrames.NEAR, SampleFrames.FAR})
+    public String frameName;
+
+    @Param({"false", "true"})
+    public boolean blobLabelling;
+
+    private ContourPipeline contourPipeline;
+    private Mat closed;
+    private Mat work = new Mat();
+    private Pipeline.Context context;
+
+    @Setup
+    public void setup() throws IOException {
+        Mat frame = SampleFrames.load(frameName);
+        context = new Pipeline.Context(frame.width(), frame.height());
+        new BlurPipeline().process(frame, context);
+        new HSVPipeline().process(frame, context);
+        new ErodeDilatePipeline().process(frame, context);
+        closed = frame;
+
+        ContourPipeline reference = new ContourPipeline();
+        closed.copyTo(work);
+        reference.process(work, context);
+
+        // Leaves this frame's contours in foundContours for analyseContours
+        contourPipeline = new ContourPipeline();
+        contourPipeline.getSetting("blobLabelling").setDefaultValue(blobLabelling);
+        closed.copyTo(work);
+        contourPipeline.process(work, context);
+
+        ContourPipeline.PotentialSmartTarget expected = reference.getLastTarget();
+        ContourPipeline.PotentialSmartTarget actual = contourPipeline.getLastTarget();
+        if ((expected == null) != (actual == null)
+                || (expected != null && !expected.minRectBounds.equals(actual.minRectBounds))) {
+            throw new IllegalStateException("blobLabelling " + blobLabelling + " picked a different target on "
+                    + frameName + ": " + (actual == null ? null : actual.minRectBounds) + " instead of "
+                    + (expected == null ? null : expected.minRectBounds));
+        }
+
+        checkAllocationFree();
+    }
+
+    private void checkAllocationFree() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            analyseContours();
+        }
+        // Reading the counter may allocate too, measure that on an empty interval and subtract it
+        long start = threads.getThreadAllocatedBytes(thread);
+        long overhead = threads.getThreadAllocatedBytes(thread) - start;
+        start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < CHECKED_CALLS; i++) {
+            analyseContours();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - start - overhead;
+        if (allocated > 0) {
+            throw new IllegalStateException("analyseContours allocated " + allocated + " bytes in " + CHECKED_CALLS
+                    + " calls on " + frameName + " with blobLabelling " + blobLabelling);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        closed.release();
+        work.release();
+    }
+
+    @Benchmark
+    public ContourPipeline.PotentialSmartTarget analyseContours() {
+        contourPipeline.analyseContours(work, context);
+        return contourPipeline.getLastTarget();
+    }
+
+    @Benchmark
+    public ContourPipeline.PotentialSmartTarget findContours() {
+        closed.copyTo(work);
+        contourPipeline.process(work, context);
+        return contourPipeline.getLastTarget();
+    }
+}
@@ -0,0 +1,77 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.Constants;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HSVLookupTable} against cvtColor + inRange on the blurred sample frames, and on noise which hits every color.
+ * The lookup table quantizes colors, so @Setup prints the fraction of mask pixels where the two differ.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HSVThresholdBenchmark {
+    private static final String NOISE = "noise";
+    // HSVPipeline's defaults
+    private static final Scalar LOWER = new Scalar(50, 0, 50);
+    private static final Scalar UPPER = new Scalar(180, 255, 255);
+
+    @Param({SampleFrames.NEAR, SampleFrames.FAR, NOISE})
+    public String frameName;
+
+    private HSVLookupTable hsvLookupTable;
+    private Mat blurred;
+    private Mat hsv = new Mat();
+    private Mat mask = new Mat();
+
+    @Setup
+    public void setup() throws IOException {
+        if (frameName.equals(NOISE)) {
+            CameraServerCvJNI.forceLoad();
+            blurred = new Mat(Constants.PSEYE_HEIGHT, Constants.PSEYE_WIDTH, CvType.CV_8UC3);
+            Core.randu(blurred, 0, 256);
+        } else {
+            blurred = SampleFrames.load(frameName);
+            new BlurPipeline().process(blurred, new Pipeline.Context(blurred.width(), blurred.height()));
+        }
+        hsvLookupTable = new HSVLookupTable();
+
+        Mat expected = cvtColorInRange().clone();
+        lookupTable();
+        Mat difference = new Mat();
+        Core.compare(expected, mask, difference, Core.CMP_NE);
+        System.out.printf("%n%s mask mismatch: %.4f%% of pixels (%d bit quantization)%n", frameName,
+                Core.countNonZero(difference) * 100.0 / difference.total(), HSVLookupTable.BITS_PER_CHANNEL);
+        expected.release();
+        difference.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        blurred.release();
+        hsv.release();
+        mask.release();
+    }
+
+    @Benchmark
+    public Mat cvtColorInRange() {
+        Imgproc.cvtColor(blurred, hsv, Imgproc.COLOR_BGR2HSV, 3);
+        Core.inRange(hsv, LOWER, UPPER, mask);
+        return mask;
+    }
+
+    @Benchmark
+    public Mat lookupTable() {
+        hsvLookupTable.threshold(blurred, mask, (int) LOWER.val[0], (int) LOWER.val[1], (int) LOWER.val[2],
+                (int) UPPER.val[0], (int) UPPER.val[1], (int) UPPER.val[2]);
+        return mask;
+    }
+}
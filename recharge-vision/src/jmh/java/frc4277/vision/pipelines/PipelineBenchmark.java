@@ -0,0 +1,102 @@
+package frc4277.vision.pipelines;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every stage and the full chain on the sample frames.
+ * Every benchmark copies its input first since stages work in place, compare against {@link #copyFrame()}.
+ * The lookup table HSV mode is measured by {@link HSVThresholdBenchmark}.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmark {
+    @Param({SampleFrames.NEAR, SampleFrames.FAR})
+    public String frameName;
+
+    private BlurPipeline blurPipeline;
+    private HSVPipeline hsvPipeline;
+    private ErodeDilatePipeline erodeDilatePipeline;
+    private ContourPipeline contourPipeline;
+    private MainPipeline mainPipeline;
+
+    // Input of each stage, taken from the output of the stage before it
+    private Mat frame;
+    private Mat blurred;
+    private Mat thresholded;
+    private Mat closed;
+    private Mat work = new Mat();
+    private Pipeline.Context context;
+
+    @Setup
+    public void setup() throws IOException {
+        frame = SampleFrames.load(frameName);
+        context = new Pipeline.Context(frame.width(), frame.height());
+
+        blurPipeline = new BlurPipeline();
+        hsvPipeline = new HSVPipeline();
+        erodeDilatePipeline = new ErodeDilatePipeline();
+        contourPipeline = new ContourPipeline();
+        mainPipeline = new MainPipeline(null, null);
+
+        blurred = frame.clone();
+        blurPipeline.process(blurred, context);
+        thresholded = blurred.clone();
+        hsvPipeline.process(thresholded, context);
+        closed = thresholded.clone();
+        erodeDilatePipeline.process(closed, context);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+        blurred.release();
+        thresholded.release();
+        closed.release();
+        work.release();
+    }
+
+    @Benchmark
+    public Mat copyFrame() {
+        frame.copyTo(work);
+        return work;
+    }
+
+    @Benchmark
+    public Mat blur() {
+        frame.copyTo(work);
+        blurPipeline.process(work, context);
+        return work;
+    }
+
+    @Benchmark
+    public Mat hsv() {
+        blurred.copyTo(work);
+        hsvPipeline.process(work, context);
+        return work;
+    }
+
+    @Benchmark
+    public Mat erodeDilate() {
+        thresholded.copyTo(work);
+        erodeDilatePipeline.process(work, context);
+        return work;
+    }
+
+    @Benchmark
+    public Mat contour() {
+        closed.copyTo(work);
+        contourPipeline.process(work, context);
+        return work;
+    }
+
+    @Benchmark
+    public Mat mainPipeline() {
+        frame.copyTo(work);
+        mainPipeline.process(work);
+        return work;
+    }
+}
@@ -0,0 +1,50 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.CameraIntrinsics;
+import frc4277.vision.Constants;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of solving the port pose per frame, should stay well under 1 ms. The corners are the port about 4 m away,
+ * a little to the right and seen at an angle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PoseEstimatorBenchmark {
+    private static final double[] CORNERS = {
+            340.2, 214.5, 441.8, 219.1,
+            365.4, 259.7, 416.3, 261.8
+    };
+
+    private PoseEstimator poseEstimator;
+    private final ContourPipeline.PotentialSmartTarget target = new ContourPipeline.PotentialSmartTarget();
+
+    @Setup
+    public void setup() throws Exception {
+        CameraServerCvJNI.forceLoad();
+        poseEstimator = new PoseEstimator(CameraIntrinsics.fromFieldOfView(Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT));
+    }
+
+    /**
+     * Every frame after the first, seeded with the last pose
+     */
+    @Benchmark
+    public double solveTracked() {
+        poseEstimator.solve(CORNERS, Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT, target);
+        return target.range;
+    }
+
+    /**
+     * First frame of a track
+     */
+    @Benchmark
+    public double solveFresh() {
+        poseEstimator.reset();
+        poseEstimator.solve(CORNERS, Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT, target);
+        return target.range;
+    }
+}
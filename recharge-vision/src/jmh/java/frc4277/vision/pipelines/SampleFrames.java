@@ -0,0 +1,53 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.replay.FrameRecording;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * Loads the sample frames checked in under src/jmh/resources/frames, or frames captured with
+ * {@link frc4277.vision.replay.FrameRecorder}
+ */
+public class SampleFrames {
+    public static final String NEAR = "port_near.png";
+    public static final String FAR = "port_far.png";
+
+    /**
+     * @param name a sample frame, or a recording's path followed by #index for one of its frames, the first by default
+     */
+    public static Mat load(String name) throws IOException {
+        CameraServerCvJNI.forceLoad();
+        if (!name.equals(NEAR) && !name.equals(FAR)) {
+            return loadRecorded(name);
+        }
+        try (InputStream stream = SampleFrames.class.getResourceAsStream("/frames/" + name)) {
+            if (stream == null) {
+                throw new IOException("Missing sample frame " + name);
+            }
+            MatOfByte encoded = new MatOfByte(stream.readAllBytes());
+            Mat frame = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+            encoded.release();
+            return frame;
+        }
+    }
+
+    private static Mat loadRecorded(String name) throws IOException {
+        int separator = name.lastIndexOf('#');
+        String path = separator < 0 ? name : name.substring(0, separator);
+        int index = separator < 0 ? 0 : Integer.parseInt(name.substring(separator + 1));
+        try (FrameRecording recording = FrameRecording.open(Paths.get(path))) {
+            if (index >= recording.getFrameCount()) {
+                throw new IOException(path + " has " + recording.getFrameCount() + " frames, no frame " + index);
+            }
+            Mat frame = new Mat();
+            recording.read(index, frame, new byte[recording.getFrameBytes()]);
+            return frame;
+        }
+    }
+}
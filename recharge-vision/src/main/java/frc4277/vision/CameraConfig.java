@@ -0,0 +1,63 @@
+package frc4277.vision;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cameras read from a JSON file, for example:
+ * <pre>
+ * {"cameras": [
+ *   {"name": "psEye", "device": 0},
+ *   {"name": "intake", "path": "/dev/v4l/by-id/usb-intake-video-index0", "width": 320, "height": 240, "fps": 60,
+ *    "graph": "graphs/cells.json", "intrinsics": "/home/pi/intake-intrinsics.json"}
+ * ]}
+ * </pre>
+ * The first camera is the PS Eye, it keeps the ps_eye settings, latency governor, debug output and the top level
+ * results and statistics tables the robot reads. The other cameras publish to subtables of those named after the camera.
+ */
+public class CameraConfig {
+    public List<Camera> cameras = new ArrayList<>();
+
+    public static CameraConfig load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            CameraConfig config = new Gson().fromJson(reader, CameraConfig.class);
+            if (config == null || config.cameras == null || config.cameras.isEmpty()) {
+                throw new IOException("No cameras in " + path);
+            }
+            List<String> names = new ArrayList<>();
+            for (Camera camera : config.cameras) {
+                if (camera.name == null || names.contains(camera.name)) {
+                    throw new IOException("Camera names must be set and unique, got " + camera.name);
+                }
+                if (camera.path == null && camera.device < 0) {
+                    throw new IOException("Camera " + camera.name + " needs a device or path");
+                }
+                names.add(camera.name);
+            }
+            return config;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid camera config " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    public static class Camera {
+        public String name;
+        // USB device number, used when path is not set
+        public int device = -1;
+        public String path;
+        public int width = Constants.PSEYE_WIDTH;
+        public int height = Constants.PSEYE_HEIGHT;
+        public int fps = Constants.PSEYE_DEFAULT_FPS;
+        // Pipeline graph file, the default graph when not set
+        public String graph;
+        // Intrinsics file from CalibrationTool, the FOV constants when not set
+        public String intrinsics;
+    }
+}
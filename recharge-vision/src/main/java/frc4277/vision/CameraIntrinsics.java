@@ -0,0 +1,76 @@
+package frc4277.vision;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pinhole camera model in pixels for a given capture size, with OpenCV's distortion coefficients
+ * (k1, k2, p1, p2, k3). Calibrated intrinsics are written by {@link frc4277.vision.calibration.CalibrationTool}
+ * as JSON.
+ */
+public class CameraIntrinsics {
+    public final int width;
+    public final int height;
+    public final double fx;
+    public final double fy;
+    public final double cx;
+    public final double cy;
+    public final double[] distortion;
+
+    public CameraIntrinsics(int width, int height, double fx, double fy, double cx, double cy, double[] distortion) {
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.distortion = distortion.clone();
+    }
+
+    /**
+     * Uncalibrated estimate from {@link Constants#PSEYE_HORIZONTAL_FOV}, no distortion. Pixels are assumed square,
+     * since the vertical FOV constant is not measured.
+     */
+    public static CameraIntrinsics fromFieldOfView(int width, int height) {
+        double f = (width / 2D) / Math.tan(Math.toRadians(Constants.PSEYE_HORIZONTAL_FOV) / 2);
+        return new CameraIntrinsics(width, height, f, f, width / 2D, height / 2D, new double[5]);
+    }
+
+    public static CameraIntrinsics load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            CameraIntrinsics intrinsics = new Gson().fromJson(reader, CameraIntrinsics.class);
+            if (intrinsics == null || intrinsics.width <= 0 || intrinsics.height <= 0 || intrinsics.fx <= 0
+                    || intrinsics.fy <= 0 || intrinsics.distortion == null || intrinsics.distortion.length < 4) {
+                throw new IOException("Incomplete camera intrinsics " + path);
+            }
+            return intrinsics;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid camera intrinsics " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void save(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(this, writer);
+        }
+    }
+
+    /**
+     * Same camera at another capture size, e.g. after the latency governor lowers the resolution
+     */
+    public CameraIntrinsics scaledTo(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return this;
+        }
+        double scaleX = (double) width / this.width;
+        double scaleY = (double) height / this.height;
+        return new CameraIntrinsics(width, height, fx * scaleX, fy * scaleY, cx * scaleX, cy * scaleY, distortion);
+    }
+}
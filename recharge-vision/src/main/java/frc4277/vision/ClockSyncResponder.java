@@ -0,0 +1,33 @@
+package frc4277.vision;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Answers the robot's clock pings so it can estimate the offset between its FPGA clock and the Pi clock
+ * that capture timestamps use. The robot writes its time to ping, and the Pi replies with [robot time, Pi time].
+ */
+public class ClockSyncResponder {
+    private final NetworkTableEntry pingEntry;
+    private final NetworkTableEntry pongEntry;
+    private final double[] pong = new double[2];
+
+    public ClockSyncResponder(NetworkTable clockTable) {
+        this.pingEntry = clockTable.getEntry("ping");
+        this.pongEntry = clockTable.getEntry("pong");
+    }
+
+    public void start() {
+        pingEntry.addListener(notification -> {
+            if (!notification.value.isDouble()) {
+                return;
+            }
+            // Same microsecond clock as cscore frame timestamps
+            pong[0] = notification.value.getDouble();
+            pong[1] = NetworkTablesJNI.now();
+            pongEntry.setDoubleArray(pong);
+            pongEntry.getInstance().flush();
+        }, Constants.NT_UPDATE_FLAGS);
+    }
+}
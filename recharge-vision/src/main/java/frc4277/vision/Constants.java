@@ -10,10 +10,29 @@ public class Constants {
     public static final int PSEYE_WIDTH = 320 * 2;
     public static final int PSEYE_HEIGHT = 240 * 2;
     public static final int PSEYE_OUTPUT_FPS = 30;
+    // Debug stream is downscaled to this width, keeping the aspect ratio
+    public static final int PSEYE_OUTPUT_WIDTH = 320;
+    // MJPEG quality 0-100 of the debug stream
+    public static final int PSEYE_OUTPUT_DEFAULT_QUALITY = 30;
+    // p95 capture-to-result latency the governor holds by lowering the PS Eye mode
+    public static final double PSEYE_LATENCY_BUDGET_MS = 40;
+    // How often the watchdogs check for stalled cameras
+    public static final long WATCHDOG_PERIOD_MS = 100;
+    // Last tuned setting values, relative to the working directory
+    public static final String DEFAULT_SETTINGS_CACHE_PATH = "vision-settings.json";
+    // ~550 MB of 640x480 BGR frames
+    public static final int DEFAULT_RECORD_FRAMES = 600;
 
     public static final int NT_UPDATE_FLAGS = EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate;
 
     public static final double PSEYE_HORIZONTAL_FOV = 75.0;
     public static final double PSEYE_VERTICAL_FOV = 45.0;//todo :calc?
 
+    // Outer edge of the power port's retroreflective target
+    public static final double POWER_PORT_TOP_WIDTH_M = 0.997;
+    public static final double POWER_PORT_BOTTOM_WIDTH_M = 0.498;
+    public static final double POWER_PORT_HEIGHT_M = 0.432;
+    // 7 inch foam ball
+    public static final double POWER_CELL_DIAMETER_M = 0.178;
+
 }
@@ -0,0 +1,122 @@
+package frc4277.vision;
+
+import edu.wpi.cscore.CvSource;
+import frc4277.vision.util.DroppingRingBuffer;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Feeds the debug stream from its own thread so encoding never runs on the vision thread.
+ * Frames are rate limited to {@link Constants#PSEYE_OUTPUT_FPS} before any work is done, then downscaled into a
+ * spare buffer. If the encoder is still busy the older pending frame is dropped.
+ */
+public class DebugOutputEncoder {
+    private static final long FRAME_INTERVAL_NANOS = 1_000_000_000L / Constants.PSEYE_OUTPUT_FPS;
+    // One being encoded, one pending and one being filled
+    private static final int BUFFER_COUNT = 3;
+
+    private final CvSource source;
+    private final Size outputSize = new Size();
+    private final BlockingQueue<Mat> freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final DroppingRingBuffer<Mat> pending = new DroppingRingBuffer<>(1);
+    private long lastFrameNanos = 0;
+    private volatile boolean running = false;
+    private volatile long droppedFrames = 0;
+    private Thread thread;
+
+    public DebugOutputEncoder(CvSource source) {
+        this.source = source;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            freeBuffers.add(new Mat());
+        }
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "vision-DebugOutput");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the encoder thread, waits for it so the source can be closed afterwards and releases the buffers.
+     * The encoder can not be started again.
+     */
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                // Still inside putFrame, its buffer can not be released under it
+                System.out.println("Debug output encoder did not stop, leaving its buffers");
+                return;
+            }
+            thread = null;
+        }
+        Mat buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            buffer.release();
+        }
+        while ((buffer = pending.poll()) != null) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Called on the vision thread, returns right away when the frame is not needed
+     */
+    public void offer(Mat frame) {
+        long now = System.nanoTime();
+        if (!running || now - lastFrameNanos < FRAME_INTERVAL_NANOS) {
+            return;
+        }
+        Mat buffer = freeBuffers.poll();
+        if (buffer == null) {
+            droppedFrames++;
+            return;
+        }
+        lastFrameNanos = now;
+        // Copying and downscaling in one pass keeps later drawing and stages from changing what gets encoded
+        outputSize.width = Constants.PSEYE_OUTPUT_WIDTH;
+        outputSize.height = Math.round(frame.height() * (double) Constants.PSEYE_OUTPUT_WIDTH / frame.width());
+        Imgproc.resize(frame, buffer, outputSize, 0, 0, Imgproc.INTER_AREA);
+        Mat dropped = pending.offer(buffer);
+        if (dropped != null) {
+            freeBuffers.add(dropped);
+        }
+    }
+
+    /**
+     * @return frames skipped because the encoder fell behind, not counting the rate limit
+     */
+    public long getDroppedFrames() {
+        return droppedFrames + pending.getDropCount();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Mat buffer = pending.take();
+                try {
+                    source.putFrame(buffer);
+                } finally {
+                    freeBuffers.add(buffer);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Stopped
+        }
+    }
+}
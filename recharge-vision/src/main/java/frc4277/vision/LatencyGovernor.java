@@ -0,0 +1,203 @@
+package frc4277.vision;
+
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTable;
+import frc4277.vision.pipelines.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the PS Eye along a ladder of capture modes, most expensive first, to keep the p95 capture-to-result latency
+ * within a budget. It steps down after one window over budget. It only steps back up after several windows well under
+ * budget, so it does not oscillate between two modes.
+ * <p>
+ * The ladder starts at the mode the camera was configured with, followed by the built in modes that are no bigger and
+ * no faster than it.
+ */
+public class LatencyGovernor {
+    private static final long WINDOW_MS = 1000;
+    // Fewer frames than this in a window are not enough to judge the mode
+    private static final int MIN_WINDOW_FRAMES = 10;
+    private static final int STEP_UP_WINDOWS = 5;
+    // p95 must be under this fraction of the budget to count towards stepping up
+    private static final double STEP_UP_FRACTION = 0.6;
+
+    // Lower resolution cuts processing time, lower FPS cuts USB and CPU load
+    private static final Mode[] LADDER = {
+            new Mode(Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT, Constants.PSEYE_DEFAULT_FPS),
+            new Mode(640, 480, 75),
+            new Mode(640, 480, 60),
+            new Mode(320, 240, 100),
+            new Mode(320, 240, 60),
+            new Mode(320, 240, 30)
+    };
+
+    private final VideoSource camera;
+    private final NetworkTable psEyeTable;
+    // The configured mode, then the rungs of LADDER below it
+    private final Mode[] modes;
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+    private volatile boolean enabled = true;
+    private volatile double budgetMs = Constants.PSEYE_LATENCY_BUDGET_MS;
+    private int modeIndex = 0;
+    private int windowsUnderBudget = 0;
+    private boolean settling = false;
+    private volatile boolean running = false;
+
+    /**
+     * @param width the mode the camera was opened with, the governor never goes above it
+     */
+    public LatencyGovernor(VideoSource camera, NetworkTable psEyeTable, int width, int height, int fps) {
+        this.camera = camera;
+        this.psEyeTable = psEyeTable;
+        Mode start = new Mode(width, height, fps);
+        List<Mode> modes = new ArrayList<>();
+        modes.add(start);
+        for (Mode mode : LADDER) {
+            if (mode.isBelow(start)) {
+                modes.add(mode);
+            }
+        }
+        this.modes = modes.toArray(new Mode[0]);
+    }
+
+    /**
+     * Capture-to-result latencies to govern on, register with {@link frc4277.vision.pipelines.MainPipeline}
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::run, "vision-Governor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Disabling puts the camera back in the configured mode, so it is not left at whatever rung the governor was on
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (this.enabled && !enabled) {
+            windowsUnderBudget = 0;
+            if (modeIndex != 0) {
+                setMode(0, "disabled", 0);
+            } else {
+                publishDecision("disabled", 0);
+            }
+        }
+        this.enabled = enabled;
+    }
+
+    public void setBudgetMs(double budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    private void run() {
+        publishDecision("start", 0);
+        while (running) {
+            try {
+                Thread.sleep(WINDOW_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            latencyHistogram.snapshotAndReset();
+            update();
+        }
+    }
+
+    private synchronized void update() {
+        // Checked under the lock, setEnabled(false) may have just restored the configured mode
+        if (!enabled) {
+            return;
+        }
+        if (settling) {
+            // This window mixes frames from before and after the last change
+            settling = false;
+            return;
+        }
+        if (latencyHistogram.getCount() < MIN_WINDOW_FRAMES) {
+            return;
+        }
+        double p95Ms = latencyHistogram.getPercentileNanos(0.95) / 1e6;
+        double budgetMs = this.budgetMs;
+        psEyeTable.getEntry("governor_p95_ms").setDouble(p95Ms);
+
+        if (p95Ms > budgetMs) {
+            windowsUnderBudget = 0;
+            if (modeIndex < modes.length - 1) {
+                setMode(modeIndex + 1, "over budget", p95Ms);
+            }
+        } else if (p95Ms < budgetMs * STEP_UP_FRACTION && modeIndex > 0) {
+            if (++windowsUnderBudget >= STEP_UP_WINDOWS) {
+                windowsUnderBudget = 0;
+                setMode(modeIndex - 1, "under budget", p95Ms);
+            }
+        } else {
+            windowsUnderBudget = 0;
+        }
+    }
+
+    private void setMode(int index, String reason, double p95Ms) {
+        Mode mode = modes[index];
+        if (!camera.setVideoMode(VideoMode.PixelFormat.kYUYV, mode.width, mode.height, mode.fps)) {
+            System.out.println("Governor could not set PS Eye mode " + mode);
+            return;
+        }
+        System.out.println("Governor " + modes[modeIndex] + " -> " + mode + ", " + reason + String.format(" (p95 %.1f ms)", p95Ms));
+        modeIndex = index;
+        settling = true;
+        publishDecision(reason, p95Ms);
+    }
+
+    private void publishDecision(String reason, double p95Ms) {
+        Mode mode = modes[modeIndex];
+        psEyeTable.getEntry("governor_mode").setString(mode.toString());
+        psEyeTable.getEntry("governor_level").setDouble(modeIndex);
+        psEyeTable.getEntry("governor_width").setDouble(mode.width);
+        psEyeTable.getEntry("governor_height").setDouble(mode.height);
+        psEyeTable.getEntry("governor_fps").setDouble(mode.fps);
+        psEyeTable.getEntry("governor_reason").setString(reason);
+        psEyeTable.getEntry("governor_decision_p95_ms").setDouble(p95Ms);
+        psEyeTable.getEntry("governor_budget_ms").setDouble(budgetMs);
+    }
+
+    private static class Mode {
+        private final int width;
+        private final int height;
+        private final int fps;
+
+        private Mode(int width, int height, int fps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        /**
+         * @return whether this is a cheaper mode than other, no bigger and no faster
+         */
+        private boolean isBelow(Mode other) {
+            return width <= other.width && height <= other.height && fps <= other.fps
+                    && (width < other.width || height < other.height || fps < other.fps);
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+}
@@ -11,18 +11,27 @@ import edu.wpi.first.networktables.EntryNotification;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.vision.VisionThread;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import edu.wpi.first.wpilibj.shuffleboard.SimpleWidget;
+import frc4277.vision.pipelines.CameraPoolRunner;
 import frc4277.vision.pipelines.MainPipeline;
 import frc4277.vision.pipelines.Pipeline;
-import frc4277.vision.pipelines.Pipelines;
+import frc4277.vision.pipelines.PipelineGraph;
+import frc4277.vision.pipelines.PipelineRunner;
+import frc4277.vision.pipelines.SerialPipelineRunner;
+import frc4277.vision.pipelines.StagedPipelineRunner;
 import frc4277.vision.pipelines.setting.Setting;
+import frc4277.vision.pipelines.setting.SettingsCache;
+import frc4277.vision.replay.FrameRecorder;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
 
@@ -31,8 +40,21 @@ import static frc4277.vision.Constants.*;
 public final class Main {
   private static Main INSTANCE;
   private boolean ntServer;
+  private boolean stagedPipeline;
+  private String recordPath;
+  private int recordFrames;
+  private String graphPath;
+  private String camerasPath;
+  private String intrinsicsPath;
+  private String settingsPath;
+  private CameraConfig cameraConfig;
+  // PS Eye graph first, then one per extra camera
+  private List<PipelineGraph> graphs = new ArrayList<>();
   private CameraServer cameraServer = CameraServer.getInstance();
   private UsbCamera psEye;
+  private LatencyGovernor latencyGovernor;
+  private List<VisionWatchdog> watchdogs = new ArrayList<>();
+  private volatile PipelineRunner psEyeRunner;
   private NetworkTableInstance ntInstance;
   private NetworkTable table;
   private NetworkTable psEyeTable;
@@ -44,7 +66,9 @@ public final class Main {
   private boolean psEyeOutput = false;
   private MjpegServer psEyeServer;
   private CvSource psEyeSource;
-  private Pipelines pipelineOutput;
+  private volatile DebugOutputEncoder debugOutputEncoder;
+  private int psEyeOutputQuality = PSEYE_OUTPUT_DEFAULT_QUALITY;
+  private Pipeline pipelineOutput;
 
   // Shuffleboard
   private ShuffleboardTab visionTab;
@@ -52,7 +76,38 @@ public final class Main {
 
   public static void main(String[] args) {
     boolean ntServer = false;
+    boolean stagedPipeline = false;
+    String recordPath = null;
+    int recordFrames = DEFAULT_RECORD_FRAMES;
+    String graphPath = null;
+    String camerasPath = null;
+    String intrinsicsPath = null;
+    String settingsPath = DEFAULT_SETTINGS_CACHE_PATH;
     for (String arg  : args) {
+      if (arg.startsWith("settings=")) {
+        settingsPath = arg.substring("settings=".length());
+        continue;
+      }
+      if (arg.startsWith("intrinsics=")) {
+        intrinsicsPath = arg.substring("intrinsics=".length());
+        continue;
+      }
+      if (arg.startsWith("cameras=")) {
+        camerasPath = arg.substring("cameras=".length());
+        continue;
+      }
+      if (arg.startsWith("graph=")) {
+        graphPath = arg.substring("graph=".length());
+        continue;
+      }
+      if (arg.startsWith("record=")) {
+        recordPath = arg.substring("record=".length());
+        continue;
+      }
+      if (arg.startsWith("recordFrames=")) {
+        recordFrames = Integer.parseInt(arg.substring("recordFrames=".length()));
+        continue;
+      }
       switch (arg) {
         case "server":
           ntServer = true;
@@ -60,15 +115,27 @@ public final class Main {
         case "client":
           ntServer = false;
           break;
+        case "staged":
+          stagedPipeline = true;
+          break;
       }
     }
     System.out.println("Starting instance...");
-    INSTANCE = new Main(ntServer);
+    INSTANCE = new Main(ntServer, stagedPipeline, recordPath, recordFrames, graphPath, camerasPath,
+            intrinsicsPath, settingsPath);
     INSTANCE.start();
   }
 
-  private Main(boolean ntServer) {
+  private Main(boolean ntServer, boolean stagedPipeline, String recordPath, int recordFrames, String graphPath,
+               String camerasPath, String intrinsicsPath, String settingsPath) {
     this.ntServer = ntServer;
+    this.stagedPipeline = stagedPipeline;
+    this.recordPath = recordPath;
+    this.recordFrames = recordFrames;
+    this.graphPath = graphPath;
+    this.camerasPath = camerasPath;
+    this.intrinsicsPath = intrinsicsPath;
+    this.settingsPath = settingsPath;
   }
 
   private void start() {
@@ -76,19 +143,23 @@ public final class Main {
 
     setupNetworkTables();
     setupShuffleboard();
+    loadCameraConfig();
     setupPSEye();
     setupPipelines();
 
 
     System.out.println("Startup complete.");
 
-    // Make program never die
+    // Make program never die, and restart any camera that stops producing frames
     while (true) {
       try {
-        Thread.sleep(10000);
+        Thread.sleep(WATCHDOG_PERIOD_MS);
       } catch (InterruptedException ignored) {
         return;
       }
+      for (VisionWatchdog watchdog : watchdogs) {
+        watchdog.check();
+      }
     }
   }
 
@@ -107,6 +178,8 @@ public final class Main {
     pipelinesTable = table.getSubTable("pipelines");
     statisticsTable = table.getSubTable("statistics");
     resultsTable = table.getSubTable("results");
+
+    new ClockSyncResponder(table.getSubTable("clock")).start();
   }
 
   private void setupShuffleboard() {
@@ -116,12 +189,42 @@ public final class Main {
   }
 
 
+  private void loadCameraConfig() {
+    if (camerasPath == null) {
+      return;
+    }
+    try {
+      cameraConfig = CameraConfig.load(Paths.get(camerasPath));
+      System.out.println("Loaded " + cameraConfig.cameras.size() + " cameras");
+      if (stagedPipeline) {
+        System.out.println("Staged pipeline is single camera only, using the camera worker pool instead");
+      }
+    } catch (IOException e) {
+      System.out.println("Failed to load camera config, using the PS Eye only");
+      e.printStackTrace();
+    }
+  }
+
+  private UsbCamera createCamera(CameraConfig.Camera config) {
+    UsbCamera camera = config.path != null ? new UsbCamera(config.name, config.path) : new UsbCamera(config.name, config.device);
+    camera.setResolution(config.width, config.height);
+    camera.setFPS(config.fps);
+    camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+    return camera;
+  }
+
   private void setupPSEye() {
-    psEye = new UsbCamera("PSEye", 0);
+    if (cameraConfig == null) {
+      psEye = new UsbCamera("PSEye", 0);
+      psEye.setResolution(PSEYE_WIDTH, PSEYE_HEIGHT);
+      psEye.setFPS(PSEYE_DEFAULT_FPS);
+      psEye.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+    } else {
+      psEye = createCamera(cameraConfig.cameras.get(0));
+    }
     psEye.setPixelFormat(VideoMode.PixelFormat.kYUYV);
-    psEye.setResolution(PSEYE_WIDTH, PSEYE_HEIGHT);
-    psEye.setFPS(PSEYE_DEFAULT_FPS);
-    psEye.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+    CameraConfig.Camera psEyeConfig = cameraConfig == null ? new CameraConfig.Camera() : cameraConfig.cameras.get(0);
+    latencyGovernor = new LatencyGovernor(psEye, psEyeTable, psEyeConfig.width, psEyeConfig.height, psEyeConfig.fps);
 
     // FPS Setting (Double)
     NetworkTableEntry fpsEntry = psEyeTable.getEntry("fps");
@@ -130,10 +233,53 @@ public final class Main {
         fpsEntry.setDouble(PSEYE_DEFAULT_FPS);
         return;
       }
+      if (latencyGovernor.isEnabled()) {
+        System.out.println("Ignoring PS Eye fps while the latency governor is enabled");
+        return;
+      }
       double fps = fpsEntry.getDouble(PSEYE_DEFAULT_FPS);
       psEye.setFPS((int) fps);
     }, NT_UPDATE_FLAGS);
 
+    // Debug stream JPEG quality (Double), 0 - 100
+    NetworkTableEntry outputQualityEntry = psEyeTable.getEntry("output_quality");
+    outputQualityEntry.setDefaultDouble(PSEYE_OUTPUT_DEFAULT_QUALITY);
+    outputQualityEntry.addListener(notification -> {
+      if (!notification.value.isDouble() || notification.value.getDouble() < 0D || notification.value.getDouble() > 100D) {
+        outputQualityEntry.setDouble(PSEYE_OUTPUT_DEFAULT_QUALITY);
+        return;
+      }
+      psEyeOutputQuality = (int) notification.value.getDouble();
+      MjpegServer server = psEyeServer;
+      if (server != null) {
+        server.setDefaultCompression(psEyeOutputQuality);
+      }
+    }, NT_UPDATE_FLAGS);
+
+    // Latency governor, picks FPS and resolution to hold the budget
+    NetworkTableEntry governorEnabledEntry = psEyeTable.getEntry("governor_enabled");
+    governorEnabledEntry.setDefaultBoolean(true);
+    governorEnabledEntry.addListener(notification -> {
+      if (notification.value.isBoolean()) {
+        boolean enabled = notification.value.getBoolean();
+        latencyGovernor.setEnabled(enabled);
+        double fps = fpsEntry.getDouble(0);
+        if (!enabled && fps > 0) {
+          // The fps entry was ignored while the governor ran, apply it on top of the restored mode
+          psEye.setFPS((int) fps);
+        }
+      }
+    }, NT_UPDATE_FLAGS);
+    NetworkTableEntry latencyBudgetEntry = psEyeTable.getEntry("latency_budget_ms");
+    latencyBudgetEntry.setDefaultDouble(PSEYE_LATENCY_BUDGET_MS);
+    latencyBudgetEntry.addListener(notification -> {
+      if (!notification.value.isDouble() || notification.value.getDouble() <= 0D) {
+        latencyBudgetEntry.setDouble(PSEYE_LATENCY_BUDGET_MS);
+        return;
+      }
+      latencyGovernor.setBudgetMs(notification.value.getDouble());
+    }, NT_UPDATE_FLAGS);
+
     // auto, 0 - 100
     addPSEyeSetting("exposure", String.class, "auto", BuiltInWidgets.kTextView.getWidgetName(), new Consumer<String>() {
       @Override
@@ -200,7 +346,61 @@ public final class Main {
     updateConsumer.accept(defaultValue);
   }
 
+  private PipelineGraph loadGraph(String path, String instancePrefix) {
+    if (path != null) {
+      try {
+        return PipelineGraph.load(Paths.get(path), instancePrefix);
+      } catch (IOException e) {
+        System.out.println("Failed to load pipeline graph " + path + ", using the default");
+        e.printStackTrace();
+      }
+    }
+    return PipelineGraph.defaultGraph(instancePrefix);
+  }
+
+  /**
+   * @return null to fall back on the FOV constants
+   */
+  private CameraIntrinsics loadIntrinsics(String path) {
+    if (path == null) {
+      return null;
+    }
+    try {
+      CameraIntrinsics intrinsics = CameraIntrinsics.load(Paths.get(path));
+      System.out.println("Loaded camera intrinsics " + path);
+      return intrinsics;
+    } catch (IOException e) {
+      System.out.println("Failed to load camera intrinsics " + path + ", using the FOV constants");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
   private void setupPipelines() {
+    // The PS Eye uses the shared stage instances, other cameras get their own named after the camera
+    String psEyeGraphPath = graphPath;
+    if (cameraConfig != null && cameraConfig.cameras.get(0).graph != null) {
+      psEyeGraphPath = cameraConfig.cameras.get(0).graph;
+    }
+    String psEyeIntrinsicsPath = intrinsicsPath;
+    if (cameraConfig != null && cameraConfig.cameras.get(0).intrinsics != null) {
+      psEyeIntrinsicsPath = cameraConfig.cameras.get(0).intrinsics;
+    }
+    graphs.add(loadGraph(psEyeGraphPath, null));
+    graphs.get(0).setIntrinsics(loadIntrinsics(psEyeIntrinsicsPath));
+    List<UsbCamera> otherCameras = new ArrayList<>();
+    if (cameraConfig != null) {
+      for (CameraConfig.Camera camera : cameraConfig.cameras.subList(1, cameraConfig.cameras.size())) {
+        otherCameras.add(createCamera(camera));
+        PipelineGraph graph = loadGraph(camera.graph, camera.name);
+        graph.setIntrinsics(loadIntrinsics(camera.intrinsics));
+        graphs.add(graph);
+      }
+    }
+    for (PipelineGraph graph : graphs) {
+      System.out.println("Pipeline graph branches: " + graph.getBranches() + ", stages: " + graph.getNodes());
+    }
+
     // Setup pipeline_output option
 
     pipelineOutputEntry.addListener(notification -> {
@@ -215,17 +415,18 @@ public final class Main {
         pipelineOutputEntry.setValue("Disabled");
       }
 
-      Pipelines pipelineFound = null;
-      for (Pipelines pipeline : Pipelines.values()) {
-        if (Objects.equals(pipeline.getInstance().getName(), pipelineOutputKey)) {
-          pipelineFound = pipeline;
-          break;
+      Pipeline pipelineFound = null;
+      for (PipelineGraph graph : graphs) {
+        for (PipelineGraph.Node node : graph.getNodes()) {
+          if (Objects.equals(node.getPipeline().getName(), pipelineOutputKey)) {
+            pipelineFound = node.getPipeline();
+          }
         }
       }
 
       if (pipelineFound != null) {
         Main.this.pipelineOutput = pipelineFound;
-        System.out.println("Pipeline image output is enabled for: " + pipelineFound.getInstance().getName());
+        System.out.println("Pipeline image output is enabled for: " + pipelineFound.getName());
         startPipelineOutput();
       } else if (!Objects.equals(pipelineOutputKey, "Disabled")){
         System.out.println("Could not find pipeline when pipeline_output is " + pipelineOutputKey);
@@ -236,22 +437,82 @@ public final class Main {
 
     }, NT_UPDATE_FLAGS);
 
+    // Cached values are applied first, so the entries and the first frame start out tuned
+    SettingsCache settingsCache = new SettingsCache(Paths.get(settingsPath));
+    settingsCache.load();
+
     // Setup network tables + setting entries for every pipeline
-    for (Pipelines pipelineEnum : Pipelines.values()) {
-      Pipeline pipeline = pipelineEnum.getInstance();
-      System.out.println("Setting up setting entries for " + pipeline.getName());
-      NetworkTable pipelineTable = pipelinesTable.getSubTable(pipeline.getName());
-      pipeline.setTable(pipelineTable);
-      for (Setting<?> setting : pipeline.getSettings()) {
-        setting.setupAutomaticEntry(pipeline, pipelineTable, visionTab);
-        System.out.println("Setup entry for " + setting.getKey());
+    for (PipelineGraph graph : graphs) {
+      for (PipelineGraph.Node node : graph.getNodes()) {
+        Pipeline pipeline = node.getPipeline();
+        settingsCache.apply(pipeline);
+        System.out.println("Setting up setting entries for " + pipeline.getName());
+        NetworkTable pipelineTable = pipelinesTable.getSubTable(pipeline.getName());
+        pipeline.setTable(pipelineTable);
+        for (Setting<?> setting : pipeline.getSettings()) {
+          setting.setupAutomaticEntry(pipeline, pipelineTable, visionTab);
+          System.out.println("Setup entry for " + setting.getKey());
+        }
       }
     }
+    settingsCache.start();
+
+    // Each branch publishes under its own results subtable. The PS Eye keeps the top level results and statistics
+    // tables the robot reads, other cameras from a camera config get subtables named after the camera
+    graphs.get(0).attachResults(resultsTable);
+    MainPipeline mainPipeline = new MainPipeline(this, statisticsTable, graphs.get(0));
+    mainPipeline.addCaptureLatencyObserver(latencyGovernor.getLatencyHistogram());
+    mainPipeline.addStatisticsPublisher(statistics -> {
+      DebugOutputEncoder encoder = debugOutputEncoder;
+      if (encoder != null) {
+        statistics.getEntry("debug_output_dropped").setDouble(encoder.getDroppedFrames());
+      }
+    });
+    latencyGovernor.start();
+    if (recordPath != null) {
+      FrameRecorder frameRecorder = new FrameRecorder(Paths.get(recordPath), recordFrames);
+      mainPipeline.setFrameRecorder(frameRecorder);
+      Runtime.getRuntime().addShutdownHook(new Thread(frameRecorder::finish));
+    }
+    if (cameraConfig != null) {
+      // Capture thread per camera, processing shared between the cores
+      String psEyeName = cameraConfig.cameras.get(0).name;
+      CameraPoolRunner poolRunner = new CameraPoolRunner(Runtime.getRuntime().availableProcessors());
+      poolRunner.addCamera(psEyeName, psEye, mainPipeline);
+      watchdogs.add(new VisionWatchdog(psEyeName, psEye, mainPipeline, () -> poolRunner.restartCamera(psEyeName),
+              statisticsTable));
+      for (int i = 0; i < otherCameras.size(); i++) {
+        String name = cameraConfig.cameras.get(i + 1).name;
+        PipelineGraph graph = graphs.get(i + 1);
+        graph.attachResults(resultsTable.getSubTable(name));
+        NetworkTable cameraStatisticsTable = statisticsTable.getSubTable(name);
+        MainPipeline cameraPipeline = new MainPipeline(this, cameraStatisticsTable, graph);
+        poolRunner.addCamera(name, otherCameras.get(i), cameraPipeline);
+        watchdogs.add(new VisionWatchdog(name, otherCameras.get(i), cameraPipeline,
+                () -> poolRunner.restartCamera(name), cameraStatisticsTable));
+      }
+      poolRunner.start();
+      System.out.println("Started " + cameraConfig.cameras.size() + " cameras on " + poolRunner.getWorkerCount() + " workers");
+    } else {
+      psEyeRunner = createPSEyeRunner(mainPipeline);
+      psEyeRunner.start();
+      watchdogs.add(new VisionWatchdog("PS Eye", psEye, mainPipeline, () -> {
+        // A thread stuck in native code can not be killed, the old runner is left behind
+        psEyeRunner.stop();
+        psEyeRunner = createPSEyeRunner(mainPipeline);
+        psEyeRunner.start();
+      }, statisticsTable));
+      System.out.println(stagedPipeline ? "PS Eye staged pipeline threads started" : "PS Eye vision thread started");
+    }
+  }
 
-    // Start Vision Thread
-    VisionThread visionThread = new VisionThread(psEye, new MainPipeline(this, statisticsTable), MainPipeline::printStatistics);
-    visionThread.start();
-    System.out.println("PS Eye vision thread started");
+  private PipelineRunner createPSEyeRunner(MainPipeline mainPipeline) {
+    if (stagedPipeline) {
+      // One thread per stage
+      return new StagedPipelineRunner(psEye, mainPipeline);
+    }
+    // Keeps capture timestamps unlike VisionThread
+    return new SerialPipelineRunner(psEye, mainPipeline);
   }
 
   private void startPipelineOutput() {
@@ -260,11 +521,15 @@ public final class Main {
     }
     psEyeOutput = true;
     psEyeServer = cameraServer.addServer("PSEye Processed", PSEYE_OUTPUT_STREAM_PORT);
+    psEyeServer.setDefaultCompression(psEyeOutputQuality);
     // Cap source to 30FPS, not full 187 FPS is needed to show driver
-    psEyeSource = new CvSource("PSEye Processed", VideoMode.PixelFormat.kMJPEG, PSEYE_WIDTH, PSEYE_HEIGHT, PSEYE_OUTPUT_FPS);
+    int outputHeight = PSEYE_HEIGHT * PSEYE_OUTPUT_WIDTH / PSEYE_WIDTH;
+    psEyeSource = new CvSource("PSEye Processed", VideoMode.PixelFormat.kMJPEG, PSEYE_OUTPUT_WIDTH, outputHeight, PSEYE_OUTPUT_FPS);
     psEyeServer.setSource(psEyeSource);
+    debugOutputEncoder = new DebugOutputEncoder(psEyeSource);
+    debugOutputEncoder.start();
 
-    System.out.println("Added camera stream w/ pipeline output" + pipelineOutput.getInstance().getName());
+    System.out.println("Added camera stream w/ pipeline output" + pipelineOutput.getName());
     visionTab.add(psEyeSource).withWidget(BuiltInWidgets.kCameraStream);
   }
 
@@ -273,6 +538,9 @@ public final class Main {
       return;
     }
     psEyeOutput = false;
+    // Stop encoding before the source goes away
+    debugOutputEncoder.stop();
+    debugOutputEncoder = null;
     cameraServer.removeServer("PSEye Processed");
     psEyeServer.close();
     psEyeSource.close();
@@ -281,15 +549,21 @@ public final class Main {
     System.out.println("Pipeline image output is disabled");
   }
 
+  /**
+   * Hands the frame to the debug output encoder, cheap enough to call from the vision thread every frame
+   */
   public void addPipelineOutputFrame(Mat mat) {
-    psEyeSource.putFrame(mat);
+    DebugOutputEncoder encoder = debugOutputEncoder;
+    if (encoder != null) {
+      encoder.offer(mat);
+    }
   }
 
   public boolean isPsEyeOutput() {
     return psEyeOutput;
   }
 
-  public Pipelines getPipelineOutput() {
+  public Pipeline getPipelineOutput() {
     return pipelineOutput;
   }
 
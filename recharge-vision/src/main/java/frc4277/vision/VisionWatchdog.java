@@ -0,0 +1,99 @@
+package frc4277.vision;
+
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTable;
+import frc4277.vision.pipelines.MainPipeline;
+
+/**
+ * Restarts a camera's capture and pipeline threads when it stops finishing frames. The camera is reopened as well when
+ * it has disconnected, or when a restart alone did not bring frames back. Consecutive failed restarts back off so an
+ * unplugged camera is not reopened in a tight loop.
+ * <p>
+ * {@link #check()} is polled from the main thread, the watched threads can not be trusted to report their own stall.
+ */
+public class VisionWatchdog {
+    private static final long STALL_TIMEOUT_MS = 500;
+    private static final long MAX_STALL_TIMEOUT_MS = 4000;
+
+    private final String name;
+    private final VideoSource camera;
+    private final MainPipeline mainPipeline;
+    private final Runnable restart;
+    private final NetworkTable statisticsTable;
+    // Last time frames were known to be moving, the last frame or the last restart
+    private long progressNanos;
+    private long lastFrameNanos;
+    private long stallStartNanos = 0;
+    private int failedRestarts = 0;
+    private boolean restarting = false;
+    private long restarts = 0;
+    private long cameraReopens = 0;
+    private double lastRecoveryMs = 0;
+
+    /**
+     * @param restart stops the camera's runner and starts a new one
+     */
+    public VisionWatchdog(String name, VideoSource camera, MainPipeline mainPipeline, Runnable restart,
+                          NetworkTable statisticsTable) {
+        this.name = name;
+        this.camera = camera;
+        this.mainPipeline = mainPipeline;
+        this.restart = restart;
+        this.statisticsTable = statisticsTable;
+        this.progressNanos = System.nanoTime();
+        this.lastFrameNanos = mainPipeline.getLastFrameNanos();
+    }
+
+    public void check() {
+        long now = System.nanoTime();
+        long frameNanos = mainPipeline.getLastFrameNanos();
+        if (frameNanos != lastFrameNanos) {
+            lastFrameNanos = frameNanos;
+            progressNanos = now;
+            if (restarting) {
+                restarting = false;
+                failedRestarts = 0;
+                lastRecoveryMs = (frameNanos - stallStartNanos) / 1e6;
+                System.out.println(String.format("%s recovered in %.0f ms", name, lastRecoveryMs));
+            }
+        }
+
+        // Opening the camera takes a while, give it the longest timeout until the first frame
+        long timeoutMs = lastFrameNanos == 0 ? MAX_STALL_TIMEOUT_MS
+                : Math.min(MAX_STALL_TIMEOUT_MS, STALL_TIMEOUT_MS << Math.min(failedRestarts, 8));
+        boolean stalled = (now - progressNanos) / 1_000_000 >= timeoutMs;
+        if (stalled) {
+            if (restarting) {
+                failedRestarts++;
+            } else {
+                // Recovery is timed from the last frame, not from when the stall was noticed
+                stallStartNanos = lastFrameNanos != 0 ? lastFrameNanos : progressNanos;
+            }
+            restart(!camera.isConnected() || failedRestarts > 0);
+            progressNanos = System.nanoTime();
+        }
+        publish(now, stalled);
+    }
+
+    private void restart(boolean reopenCamera) {
+        System.out.println(name + " stalled, restarting" + (reopenCamera ? " and reopening the camera" : ""));
+        if (reopenCamera) {
+            // Switching strategy closes the device, switching back opens it again
+            camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kForceClose);
+            camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+            cameraReopens++;
+        }
+        restart.run();
+        restarts++;
+        restarting = true;
+    }
+
+    private void publish(long now, boolean stalled) {
+        long frameNanos = lastFrameNanos != 0 ? lastFrameNanos : now;
+        statisticsTable.getEntry("watchdog_restarts").setDouble(restarts);
+        statisticsTable.getEntry("watchdog_camera_reopens").setDouble(cameraReopens);
+        statisticsTable.getEntry("watchdog_last_recovery_ms").setDouble(lastRecoveryMs);
+        statisticsTable.getEntry("watchdog_stalled").setBoolean(stalled || restarting);
+        statisticsTable.getEntry("watchdog_frame_age_ms").setDouble((now - frameNanos) / 1e6);
+    }
+}
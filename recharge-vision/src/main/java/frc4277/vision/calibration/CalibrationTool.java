@@ -0,0 +1,158 @@
+package frc4277.vision.calibration;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.CameraIntrinsics;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes camera intrinsics and distortion from a directory of chessboard frames and writes them as JSON for
+ * {@link CameraIntrinsics#load}. Frames should be taken at the capture resolution the camera runs at, with the board
+ * filling different parts of the frame at different angles.
+ * Usage: CalibrationTool frameDirectory columnsxrows squareSizeMetres output
+ * where columns and rows count the inner corners, e.g. 9x6 for a 10x7 board.
+ */
+public class CalibrationTool {
+    // Fewer usable frames than this gives poor distortion estimates
+    private static final int MIN_FRAMES = 10;
+    // Frames reprojecting worse than this are worth retaking
+    private static final double WARN_FRAME_ERROR = 1.0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: CalibrationTool frameDirectory columnsxrows squareSizeMetres output");
+            return;
+        }
+        Path frameDirectory = Paths.get(args[0]);
+        String[] pattern = args[1].split("x");
+        Size patternSize = new Size(Integer.parseInt(pattern[0]), Integer.parseInt(pattern[1]));
+        double squareSize = Double.parseDouble(args[2]);
+        Path output = Paths.get(args[3]);
+
+        CameraServerCvJNI.forceLoad();
+
+        List<Path> frames;
+        try (Stream<Path> files = Files.list(frameDirectory)) {
+            frames = files.filter(CalibrationTool::isImage).sorted().collect(Collectors.toList());
+        }
+        MatOfPoint3f board = boardPoints(patternSize, squareSize);
+        List<Mat> objectPoints = new ArrayList<>();
+        List<Mat> imagePoints = new ArrayList<>();
+        List<Path> usedFrames = new ArrayList<>();
+        Size imageSize = null;
+        TermCriteria subPixCriteria = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.001);
+
+        for (Path frame : frames) {
+            Mat gray = Imgcodecs.imread(frame.toString(), Imgcodecs.IMREAD_GRAYSCALE);
+            try {
+                if (gray.empty()) {
+                    System.out.println(frame.getFileName() + ": could not read");
+                    continue;
+                }
+                if (imageSize == null) {
+                    imageSize = gray.size();
+                } else if (!imageSize.equals(gray.size())) {
+                    System.out.println(frame.getFileName() + ": skipped, " + gray.size() + " instead of " + imageSize);
+                    continue;
+                }
+                MatOfPoint2f corners = new MatOfPoint2f();
+                boolean found = Calib3d.findChessboardCorners(gray, patternSize, corners,
+                        Calib3d.CALIB_CB_ADAPTIVE_THRESH | Calib3d.CALIB_CB_NORMALIZE_IMAGE | Calib3d.CALIB_CB_FAST_CHECK);
+                if (!found) {
+                    System.out.println(frame.getFileName() + ": no chessboard");
+                    corners.release();
+                    continue;
+                }
+                Imgproc.cornerSubPix(gray, corners, new Size(11, 11), new Size(-1, -1), subPixCriteria);
+                objectPoints.add(board);
+                imagePoints.add(corners);
+                usedFrames.add(frame);
+                System.out.println(frame.getFileName() + ": found");
+            } finally {
+                gray.release();
+            }
+        }
+
+        if (usedFrames.size() < 3) {
+            System.out.println("Found the chessboard in " + usedFrames.size() + " of " + frames.size()
+                    + " frames, need at least 3");
+            return;
+        }
+        if (usedFrames.size() < MIN_FRAMES) {
+            System.out.println("Only " + usedFrames.size() + " usable frames, " + MIN_FRAMES + " or more give better results");
+        }
+
+        Mat cameraMatrix = new Mat();
+        Mat distortion = new Mat();
+        List<Mat> rvecs = new ArrayList<>();
+        List<Mat> tvecs = new ArrayList<>();
+        double rms = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix, distortion, rvecs, tvecs);
+
+        // Per frame RMS reprojection error, to spot frames worth retaking
+        MatOfDouble distortionCoefficients = new MatOfDouble(distortion);
+        MatOfPoint2f projected = new MatOfPoint2f();
+        for (int i = 0; i < usedFrames.size(); i++) {
+            Calib3d.projectPoints(board, rvecs.get(i), tvecs.get(i), cameraMatrix, distortionCoefficients, projected);
+            double error = Core.norm(imagePoints.get(i), projected, Core.NORM_L2) / Math.sqrt(board.rows());
+            System.out.println(String.format("%s: %.3f px%s", usedFrames.get(i).getFileName(), error,
+                    error > WARN_FRAME_ERROR ? ", consider retaking" : ""));
+        }
+
+        double[] distortionValues = new double[5];
+        for (int i = 0; i < Math.min(5, (int) distortion.total()); i++) {
+            distortionValues[i] = distortion.get(0, i)[0];
+        }
+        int width = (int) imageSize.width;
+        int height = (int) imageSize.height;
+        CameraIntrinsics intrinsics = new CameraIntrinsics(width, height,
+                cameraMatrix.get(0, 0)[0], cameraMatrix.get(1, 1)[0],
+                cameraMatrix.get(0, 2)[0], cameraMatrix.get(1, 2)[0], distortionValues);
+        intrinsics.save(output);
+
+        System.out.println(String.format("%d frames, RMS reprojection error %.3f px", usedFrames.size(), rms));
+        System.out.println(String.format("fx %.1f fy %.1f cx %.1f cy %.1f", intrinsics.fx, intrinsics.fy,
+                intrinsics.cx, intrinsics.cy));
+        System.out.println(String.format("FOV %.1f x %.1f degrees",
+                Math.toDegrees(2 * Math.atan(width / (2 * intrinsics.fx))),
+                Math.toDegrees(2 * Math.atan(height / (2 * intrinsics.fy)))));
+        System.out.println("Wrote " + output);
+    }
+
+    private static boolean isImage(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp");
+    }
+
+    /**
+     * Inner corners of the board in its own plane, row by row like findChessboardCorners returns them
+     */
+    private static MatOfPoint3f boardPoints(Size patternSize, double squareSize) {
+        List<Point3> points = new ArrayList<>();
+        for (int row = 0; row < patternSize.height; row++) {
+            for (int column = 0; column < patternSize.width; column++) {
+                points.add(new Point3(column * squareSize, row * squareSize, 0));
+            }
+        }
+        MatOfPoint3f board = new MatOfPoint3f();
+        board.fromList(points);
+        return board;
+    }
+}
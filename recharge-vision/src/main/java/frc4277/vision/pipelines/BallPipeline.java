@@ -0,0 +1,200 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
+import frc4277.vision.CameraIntrinsics;
+import frc4277.vision.Constants;
+import frc4277.vision.pipelines.setting.Setting;
+import frc4277.vision.util.MatPool;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds power cells in a thresholded frame. Blobs that fill enough of their bounding ellipse and are roughly as wide
+ * as they are tall are balls, the biggest (closest) ones are kept. Distance comes from the ball's apparent width and
+ * the focal length.
+ * <p>
+ * Runs at the end of a graph branch thresholding yellow, for example:
+ * <pre>
+ * {"name": "cells", "stages": [{"type": "BLUR"}, {"type": "HSV", "settings": {"h_min": 20, "h_max": 35,
+ *   "s_min": 100, "v_min": 100}}, {"type": "ERODE_DILATE"}, {"type": "BALL"}]}
+ * </pre>
+ */
+public class BallPipeline extends Pipeline {
+    // Upper limit of maxBalls, the ball buffers are allocated up front
+    public static final int MAX_BALLS = 10;
+    private static final CameraIntrinsics FOV_INTRINSICS =
+            CameraIntrinsics.fromFieldOfView(Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT);
+    private static final Scalar BALL_COLOR = new Scalar(0, 255, 255);
+
+    private Setting<Integer> maxBalls = new Setting<>("maxBalls", Integer.class, 5, BuiltInWidgets.kTextView);
+    private Setting<Double> minArea = new Setting<>("minArea", Double.class, 30.0, BuiltInWidgets.kTextView);
+    // Blob area over the area of the ellipse in its bounding box, 1 for a whole ball
+    private Setting<Double> minFill = new Setting<>("minFill", Double.class, 0.6, BuiltInWidgets.kTextView);
+    // Width over height, balls touching each other or cut off by the frame edge are not square
+    private Setting<Double> aspectRatioMin = new Setting<>("aspectRatioMin", Double.class, 0.5, BuiltInWidgets.kTextView);
+    private Setting<Double> aspectRatioMax = new Setting<>("aspectRatioMax", Double.class, 2.0, BuiltInWidgets.kTextView);
+    private Setting<Boolean> drawBalls = new Setting<>("drawBalls", Boolean.class, false, BuiltInWidgets.kToggleSwitch);
+
+    private final List<MatOfPoint> foundContours = new ArrayList<>();
+    private final List<BallResultPublisher> resultPublishers = new ArrayList<>();
+    // Sorted biggest first, only the first ballCount are valid
+    private final Ball[] balls = new Ball[MAX_BALLS];
+    private volatile int ballCount = 0;
+    private final Point drawPoint = new Point();
+    private volatile CameraIntrinsics intrinsics;
+    private CameraIntrinsics sourceIntrinsics;
+    private CameraIntrinsics scaledIntrinsics;
+
+    public BallPipeline() {
+        this("Ball");
+    }
+
+    public BallPipeline(String name) {
+        super(name);
+        for (int i = 0; i < balls.length; i++) {
+            balls[i] = new Ball();
+        }
+    }
+
+    @Override
+    public void process(Mat mat, Context context) {
+        for (int i = 0; i < foundContours.size(); i++) {
+            foundContours.get(i).release();
+        }
+        foundContours.clear();
+
+        MatPool matPool = MatPool.get();
+        Mat hierarchy = matPool.borrow();
+        try {
+            Imgproc.findContours(mat, foundContours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        } finally {
+            matPool.giveBack(hierarchy);
+        }
+
+        CameraIntrinsics camera = getScaledIntrinsics(context.width, context.height);
+        int offsetX = context.roi == null ? 0 : context.roi.x;
+        int offsetY = context.roi == null ? 0 : context.roi.y;
+        int limit = Math.max(0, Math.min(MAX_BALLS, maxBalls.get(context)));
+        double minArea = this.minArea.get(context);
+        double minFill = this.minFill.get(context);
+        double aspectRatioMin = this.aspectRatioMin.get(context);
+        double aspectRatioMax = this.aspectRatioMax.get(context);
+        int count = 0;
+
+        for (int i = 0; i < foundContours.size(); i++) {
+            MatOfPoint contour = foundContours.get(i);
+            double area = Imgproc.contourArea(contour);
+            if (area < minArea) {
+                continue;
+            }
+            Rect bounds = Imgproc.boundingRect(contour);
+            double aspectRatio = (double) bounds.width / bounds.height;
+            if (aspectRatio < aspectRatioMin || aspectRatio > aspectRatioMax) {
+                continue;
+            }
+            double fill = area / (Math.PI * bounds.width * bounds.height / 4);
+            if (fill < minFill) {
+                continue;
+            }
+            if (count == limit && (limit == 0 || area <= balls[count - 1].area)) {
+                continue;
+            }
+
+            // Insert sorted by area, dropping the smallest when full
+            int index = count < limit ? count++ : count - 1;
+            Ball ball = balls[index];
+            while (index > 0 && balls[index - 1].area < area) {
+                balls[index] = balls[index - 1];
+                index--;
+            }
+            balls[index] = ball;
+
+            ball.area = area;
+            ball.x = offsetX + bounds.x + bounds.width / 2D;
+            ball.y = offsetY + bounds.y + bounds.height / 2D;
+            ball.diameter = Math.max(bounds.width, bounds.height);
+            ball.degreesHorizontal = Math.toDegrees(Math.atan((ball.x - camera.cx) / camera.fx));
+            ball.degreesVertical = Math.toDegrees(Math.atan((ball.y - camera.cy) / camera.fy));
+            ball.distance = camera.fx * Constants.POWER_CELL_DIAMETER_M / ball.diameter;
+        }
+        ballCount = count;
+
+        if (drawBalls.get(context)) {
+            for (int i = 0; i < count; i++) {
+                drawPoint.x = balls[i].x - offsetX;
+                drawPoint.y = balls[i].y - offsetY;
+                Imgproc.circle(mat, drawPoint, (int) (balls[i].diameter / 2), BALL_COLOR, 2);
+            }
+        }
+
+        if (!resultPublishers.isEmpty()) {
+            context.processedTime = NetworkTablesJNI.now();
+            for (int i = 0; i < resultPublishers.size(); i++) {
+                resultPublishers.get(i).publish(context, balls, count);
+            }
+        }
+    }
+
+    private CameraIntrinsics getScaledIntrinsics(int width, int height) {
+        CameraIntrinsics intrinsics = this.intrinsics == null ? FOV_INTRINSICS : this.intrinsics;
+        if (intrinsics != sourceIntrinsics || scaledIntrinsics.width != width || scaledIntrinsics.height != height) {
+            sourceIntrinsics = intrinsics;
+            scaledIntrinsics = intrinsics.scaledTo(width, height);
+        }
+        return scaledIntrinsics;
+    }
+
+    /**
+     * @param intrinsics calibrated intrinsics of the camera feeding this detector, null to use the FOV constants
+     */
+    public void setIntrinsics(CameraIntrinsics intrinsics) {
+        this.intrinsics = intrinsics;
+    }
+
+    /**
+     * Publishes this detector's balls to the table, called by {@link PipelineGraph#attachResults}
+     */
+    public void addResultsTable(NetworkTable resultsTable) {
+        resultPublishers.add(new BallResultPublisher(resultsTable));
+    }
+
+    /**
+     * @return balls found in the last processed frame
+     */
+    public int getBallCount() {
+        return ballCount;
+    }
+
+    /**
+     * @param index less than {@link #getBallCount()}, 0 is the biggest. Reused by the next frame
+     */
+    public Ball getBall(int index) {
+        return balls[index];
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return List.of(maxBalls, minArea, minFill, aspectRatioMin, aspectRatioMax, drawBalls);
+    }
+
+    public static class Ball {
+        // Center in full frame pixels
+        public double x;
+        public double y;
+        public double diameter;
+        public double area;
+        public double degreesHorizontal;
+        public double degreesVertical;
+        // Metres from the camera
+        public double distance;
+    }
+}
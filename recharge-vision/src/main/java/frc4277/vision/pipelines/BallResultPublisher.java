@@ -0,0 +1,68 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Publishes every frame's balls as one double array, a header followed by COUNT balls biggest first.
+ * Written every frame, with COUNT = 0 when there are none, and flushed right away. Times are Pi microseconds
+ * like {@link TargetResultPublisher}.
+ */
+public class BallResultPublisher {
+    public static final String ENTRY_NAME = "balls";
+
+    // Record layout, keep in sync with the robot side reader
+    public static final int SEQUENCE = 0;
+    public static final int CAPTURE_TIME = 1;
+    public static final int PROCESSED_TIME = 2;
+    public static final int PUBLISH_TIME = 3;
+    public static final int COUNT = 4;
+    public static final int HEADER_LENGTH = 5;
+    // Offsets within each ball, which starts at HEADER_LENGTH + index * BALL_LENGTH
+    public static final int BALL_DEG_X = 0;
+    public static final int BALL_DEG_Y = 1;
+    public static final int BALL_DISTANCE = 2;
+    public static final int BALL_X = 3;
+    public static final int BALL_Y = 4;
+    public static final int BALL_DIAMETER = 5;
+    public static final int BALL_LENGTH = 6;
+
+    private final NetworkTableInstance instance;
+    private final NetworkTableEntry entry;
+    // One array per ball count, so a frame never allocates
+    private final double[][] records = new double[BallPipeline.MAX_BALLS + 1][];
+    private long sequence = 0;
+
+    public BallResultPublisher(NetworkTable resultsTable) {
+        this.instance = resultsTable.getInstance();
+        this.entry = resultsTable.getEntry(ENTRY_NAME);
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new double[HEADER_LENGTH + i * BALL_LENGTH];
+        }
+    }
+
+    public void publish(Pipeline.Context context, BallPipeline.Ball[] balls, int count) {
+        double[] record = records[count];
+        record[SEQUENCE] = ++sequence;
+        record[CAPTURE_TIME] = context.captureTime;
+        record[COUNT] = count;
+        for (int i = 0; i < count; i++) {
+            int offset = HEADER_LENGTH + i * BALL_LENGTH;
+            BallPipeline.Ball ball = balls[i];
+            record[offset + BALL_DEG_X] = ball.degreesHorizontal;
+            record[offset + BALL_DEG_Y] = ball.degreesVertical;
+            record[offset + BALL_DISTANCE] = ball.distance;
+            record[offset + BALL_X] = ball.x;
+            record[offset + BALL_Y] = ball.y;
+            record[offset + BALL_DIAMETER] = ball.diameter;
+        }
+        context.publishTime = NetworkTablesJNI.now();
+        record[PROCESSED_TIME] = context.processedTime;
+        record[PUBLISH_TIME] = context.publishTime;
+        entry.setDoubleArray(record);
+        // Send now instead of waiting for the next periodic update
+        instance.flush();
+    }
+}
@@ -14,13 +14,17 @@ public class BlurPipeline extends Pipeline {
 
 
     BlurPipeline() {
-        super("Blur");
+        this("Blur");
+    }
+
+    BlurPipeline(String name) {
+        super(name);
     }
 
     @Override
     public void process(Mat mat, Context context) {
-        double blurWidthPercent = this.blurWidthPercent.get();
-        double blurHeightPercent = this.blurHeightPercent.get();
+        double blurWidthPercent = this.blurWidthPercent.get(context);
+        double blurHeightPercent = this.blurHeightPercent.get(context);
         double blurWidth = context.width * blurWidthPercent;
         double blurHeight = context.height * blurHeightPercent;
 
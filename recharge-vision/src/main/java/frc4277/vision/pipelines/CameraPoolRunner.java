@@ -0,0 +1,286 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTable;
+import frc4277.vision.util.DroppingRingBuffer;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several cameras, each with a capture thread and its own {@link MainPipeline}, on one fixed worker pool.
+ * A camera has at most one frame processing at a time since its stages keep state. While it is busy only the
+ * newest captured frame is kept.
+ * <p>
+ * A worker left stuck in a restarted camera's pipeline is replaced by growing the pool by one until it returns.
+ */
+public class CameraPoolRunner implements PipelineRunner {
+    // One frame processing, one pending and one being captured
+    private static final int FRAMES_PER_CAMERA = 3;
+
+    private final ThreadPoolExecutor workers;
+    private final int workerCount;
+    private final List<Camera> cameras = new ArrayList<>();
+    private volatile boolean running = false;
+
+    /**
+     * @param workerCount usually the number of cores
+     */
+    public CameraPoolRunner(int workerCount) {
+        this.workerCount = workerCount;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "vision-Worker" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public void addCamera(String name, VideoSource source, MainPipeline mainPipeline) {
+        if (running) {
+            throw new IllegalStateException("Cameras must be added before starting");
+        }
+        Camera camera = new Camera(name, source, mainPipeline);
+        cameras.add(camera);
+        mainPipeline.addStatisticsPublisher(camera::publishStatistics);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Camera camera : cameras) {
+            camera.startSession();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Camera camera : cameras) {
+            if (camera.session != null) {
+                camera.session.stop();
+            }
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Replaces a stalled camera's capture thread and frame buffers, leaving the other cameras running. A worker stuck
+     * in that camera's pipeline is abandoned and replaced, it goes back to the pool once it returns.
+     */
+    public void restartCamera(String name) {
+        for (Camera camera : cameras) {
+            if (camera.name.equals(name) && running && camera.session != null) {
+                camera.session.stop();
+                camera.startSession();
+            }
+        }
+    }
+
+    /**
+     * @param delta 1 to stand in for an abandoned worker, -1 once it has returned
+     */
+    private synchronized void resizeWorkers(int delta) {
+        int size = workers.getCorePoolSize() + delta;
+        // The maximum must never be below the core size
+        if (delta > 0) {
+            workers.setMaximumPoolSize(size);
+            workers.setCorePoolSize(size);
+        } else {
+            workers.setCorePoolSize(size);
+            workers.setMaximumPoolSize(size);
+        }
+    }
+
+    private class Camera {
+        private final String name;
+        private final VideoSource source;
+        private final MainPipeline mainPipeline;
+        private volatile Session session;
+        private long pendingDrops = 0;
+
+        private Camera(String name, VideoSource source, MainPipeline mainPipeline) {
+            this.name = name;
+            this.source = source;
+            this.mainPipeline = mainPipeline;
+        }
+
+        private void startSession() {
+            Session previous = session;
+            if (previous != null) {
+                pendingDrops += previous.pending.getDropCount();
+            }
+            session = new Session(this, mainPipeline.claim());
+            Thread captureThread = new Thread(session::runCapture, "vision-Capture-" + name);
+            captureThread.setDaemon(true);
+            session.captureThread = captureThread;
+            captureThread.start();
+        }
+
+        private void publishStatistics(NetworkTable statisticsTable) {
+            Session session = this.session;
+            long drops = session == null ? pendingDrops : pendingDrops + session.pending.getDropCount();
+            statisticsTable.getEntry("pending_drops").setDouble(drops);
+            statisticsTable.getEntry("workers").setDouble(workers.getCorePoolSize());
+        }
+    }
+
+    /**
+     * One capture thread and its frames, replaced as a whole when the camera is restarted
+     */
+    private class Session {
+        private final Camera camera;
+        // From MainPipeline#claim(), a newer session's token makes this one's worker stop
+        private final long token;
+        private final BlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(FRAMES_PER_CAMERA);
+        private final DroppingRingBuffer<Frame> pending = new DroppingRingBuffer<>(1);
+        // Set while a drain task is queued or running, so frames of one camera never process concurrently
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean active = true;
+        private Thread captureThread;
+        // Guarded by this. Once closed, frames are released instead of reused
+        private boolean closed = false;
+        private boolean processing = false;
+        private boolean workerReplaced = false;
+
+        private Session(Camera camera, long token) {
+            this.camera = camera;
+            this.token = token;
+            for (int i = 0; i < FRAMES_PER_CAMERA; i++) {
+                freeFrames.add(new Frame());
+            }
+        }
+
+        /**
+         * Frames that are pending or free are released now, a frame held by a stuck thread once that thread returns
+         */
+        private void stop() {
+            active = false;
+            if (captureThread != null) {
+                captureThread.interrupt();
+            }
+            synchronized (this) {
+                closed = true;
+                for (Frame frame = freeFrames.poll(); frame != null; frame = freeFrames.poll()) {
+                    frame.mat.release();
+                }
+                for (Frame frame = pending.poll(); frame != null; frame = pending.poll()) {
+                    frame.mat.release();
+                }
+                if (processing && running) {
+                    workerReplaced = true;
+                    resizeWorkers(1);
+                }
+            }
+        }
+
+        private synchronized void recycle(Frame frame) {
+            if (closed) {
+                frame.mat.release();
+            } else {
+                freeFrames.add(frame);
+            }
+        }
+
+        private synchronized void submit(Frame frame) {
+            if (closed) {
+                frame.mat.release();
+                return;
+            }
+            Frame dropped = pending.offer(frame);
+            if (dropped != null) {
+                freeFrames.add(dropped);
+            }
+        }
+
+        private synchronized Frame nextFrame() {
+            Frame frame = closed ? null : pending.poll();
+            processing = frame != null;
+            return frame;
+        }
+
+        private synchronized void finishedFrame(Frame frame) {
+            processing = false;
+            if (workerReplaced) {
+                // The stand-in worker is no longer needed
+                workerReplaced = false;
+                resizeWorkers(-1);
+            }
+            recycle(frame);
+        }
+
+        private void runCapture() {
+            CvSink sink = new CvSink("CameraPoolRunner_" + camera.source.getName());
+            sink.setSource(camera.source);
+            try {
+                while (running && active && !Thread.interrupted()) {
+                    Frame frame = freeFrames.take();
+                    long frameTime = sink.grabFrame(frame.mat);
+                    if (frameTime == 0) {
+                        System.out.println(camera.name + " capture error: " + sink.getError());
+                        recycle(frame);
+                        continue;
+                    }
+                    frame.captureTime = frameTime;
+                    submit(frame);
+                    if (scheduled.compareAndSet(false, true)) {
+                        workers.execute(this::drain);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // Shutting down or restarting
+            } finally {
+                sink.close();
+            }
+        }
+
+        private void drain() {
+            while (active) {
+                Frame frame = nextFrame();
+                if (frame == null) {
+                    scheduled.set(false);
+                    // A frame may have arrived after the poll but before the flag was cleared
+                    if (pending.size() > 0 && scheduled.compareAndSet(false, true)) {
+                        continue;
+                    }
+                    return;
+                }
+                boolean current = false;
+                try {
+                    current = camera.mainPipeline.process(frame.mat, frame.captureTime, token);
+                    if (current) {
+                        camera.mainPipeline.printStatistics();
+                    }
+                } finally {
+                    finishedFrame(frame);
+                }
+                if (!current) {
+                    // Replaced by a new session while stalled
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Frame {
+        private final Mat mat = new Mat();
+        private long captureTime;
+    }
+}
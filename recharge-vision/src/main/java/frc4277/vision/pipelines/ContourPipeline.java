@@ -1,19 +1,24 @@
 package frc4277.vision.pipelines;
 
 import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTablesJNI;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
+import frc4277.vision.CameraIntrinsics;
 import frc4277.vision.Constants;
-import frc4277.vision.Main;
 import frc4277.vision.pipelines.setting.Setting;
+import frc4277.vision.util.MatPool;
 import frc4277.vision.util.RectUtil;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class ContourPipeline extends Pipeline {
-    public List<MatOfPoint> foundContours = Collections.emptyList();
+    public List<MatOfPoint> foundContours = new ArrayList<>();
+    private Setting<Integer> minContourPoints = new Setting<>("minContourPoints", Integer.class, 4, BuiltInWidgets.kTextView);
+    private Setting<Integer> minBoundingRectSize = new Setting<>("minBoundingRectSize", Integer.class, 4, BuiltInWidgets.kTextView);
     private Setting<Boolean> drawContours = new Setting<>("drawContours", Boolean.class, false, BuiltInWidgets.kToggleSwitch);
     private Setting<Double> normalBoundingRectSolidityMin = new Setting<>("normalBoundingRectSolidityMin", Double.class, 0.06, BuiltInWidgets.kTextView);
     private Setting<Double> normalBoundingRectSolidityMax = new Setting<>("normalBoundingRectSolidityMax", Double.class, 0.2, BuiltInWidgets.kTextView);
@@ -21,208 +26,839 @@ public class ContourPipeline extends Pipeline {
     private Setting<Double> normalBoundingRectAspectRatioMax = new Setting<>("normalBoundingRectAspectRatioMax", Double.class, 2.9, BuiltInWidgets.kTextView);
     private Setting<Double> momentYRatioMin = new Setting<>("momentYRatioMin", Double.class, 0.45, BuiltInWidgets.kTextView);
     private Setting<Double> momentYRatioMax = new Setting<>("momentYRatioMax", Double.class, 999.0, BuiltInWidgets.kTextView);
-    private NetworkTable resultsTable = Main.getInstance().getResultsTable();
+    private Setting<Boolean> trackingEnabled = new Setting<>("trackingEnabled", Boolean.class, false, BuiltInWidgets.kToggleSwitch);
+    // Fraction of the last target's size added on each side of the tracking window
+    private Setting<Double> trackingMargin = new Setting<>("trackingMargin", Double.class, 0.75, BuiltInWidgets.kTextView);
+    // Downscale factor for coarse-to-fine detection, 2 or 4. 1 disables the coarse pass
+    private Setting<Integer> pyramidScale = new Setting<>("pyramidScale", Integer.class, 1, BuiltInWidgets.kTextView);
+    // How long the filtered target is predicted through frames without one, and how far off a measurement may be
+    // before it starts a new track
+    private Setting<Double> kalmanMaxCoastMs = new Setting<>("kalmanMaxCoastMs", Double.class, 250.0, BuiltInWidgets.kTextView);
+    private Setting<Double> kalmanGateSigma = new Setting<>("kalmanGateSigma", Double.class, 4.0, BuiltInWidgets.kTextView);
+    // Solves the port's 3D pose from the target corners
+    private Setting<Boolean> solvePose = new Setting<>("solvePose", Boolean.class, true, BuiltInWidgets.kToggleSwitch);
+    // Finds blobs with connected components and only traces the outlines of blobs passing the cheap filters
+    private Setting<Boolean> blobLabelling = new Setting<>("blobLabelling", Boolean.class, false, BuiltInWidgets.kToggleSwitch);
+    // One per graph branch ending here, empty when running headless (benchmarks)
+    private final List<TargetResultPublisher> resultPublishers = new ArrayList<>();
+    private final TargetTracker tracker = new TargetTracker();
+    // Created on the first target, pipelines are constructed before OpenCV's native library is loaded
+    private PoseEstimator poseEstimator;
+    // Calibrated intrinsics, null to use the FOV constants
+    private volatile CameraIntrinsics intrinsics;
+    private final double[] undistortedCorners = new double[8];
+    // Bounds of the last frame's target in full frame coordinates, packed so the capture thread reads them
+    // consistently without a new Rect every frame. NO_BOUNDS when there was no target
+    private volatile long lastTargetBounds = NO_BOUNDS;
+    private volatile PotentialSmartTarget lastTarget;
+    private volatile int lastFrameWidth;
+    private volatile int lastFrameHeight;
+
+    private static final long NO_BOUNDS = Long.MIN_VALUE;
+    private static final CameraIntrinsics FOV_INTRINSICS =
+            CameraIntrinsics.fromFieldOfView(Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT);
+    private static final Scalar MOMENT_COLOR = new Scalar(52, 122, 235);
+    private static final Scalar FAIL_COLOR = new Scalar(255, 0, 255);
+    private static final Scalar FILL_COLOR = new Scalar(255, 0, 0);
+    private static final Scalar OUTLINE_COLOR = new Scalar(255, 150, 0);
+    // Offsets of each corner's x/y pair in the sorted corner buffers
+    private static final int TOP_LEFT = 0, TOP_RIGHT = 2, BOTTOM_LEFT = 4, BOTTOM_RIGHT = 6;
+    // Targets are reused after this many frames, so keep a copy of anything needed for longer
+    private static final int TARGET_BUFFERS = 3;
+
+    // Reusable per-contour buffers, only grown when a contour is bigger than any before it
+    private final Point offset = new Point();
+    private final Point drawPoint = new Point();
+    private final Point blobOffset = new Point();
+    private final Rect blobBounds = new Rect();
+    private final Scalar blobLabel = new Scalar(0);
+    private int[] blobStats = new int[Imgproc.CC_STAT_MAX * 64];
+    private int[] contourPoints = new int[512];
+    private int[] hullIndices = new int[128];
+    private float[] hullPoints = new float[256];
+    private float[] polyPoints = new float[64];
+    private final double[] minRectCorners = new double[8];
+    private final double[] sortedMinRectCorners = new double[8];
+    private final double[] targetCorners = new double[8];
+    private final double[] bestMinRectCorners = new double[8];
+    private final double[] bestTargetCorners = new double[8];
+    private final PotentialSmartTarget[] targets = new PotentialSmartTarget[TARGET_BUFFERS];
+    private int nextTarget = 0;
+
+    // Filter cascade statistics, counted per frame on the pipeline thread and added to the totals after the frame
+    private final long[] frameChecked = new long[FILTER_RULES.length];
+    private final long[] frameRejected = new long[FILTER_RULES.length];
+    private final long[] frameNanos = new long[FILTER_RULES.length];
+    private final AtomicLongArray checked = new AtomicLongArray(FILTER_RULES.length);
+    private final AtomicLongArray rejected = new AtomicLongArray(FILTER_RULES.length);
+    private final AtomicLongArray nanos = new AtomicLongArray(FILTER_RULES.length);
+    private final AtomicLong poseSolves = new AtomicLong();
+    private final AtomicLong poseNanos = new AtomicLong();
+    private final AtomicLong blobsLabelled = new AtomicLong();
+    private final AtomicLong blobsTraced = new AtomicLong();
+
+    /**
+     * Rejection rules in the order they are applied. Each rule's cost includes computing the features it is the
+     * first to need.
+     */
+    private enum FilterRule {
+        POINT_COUNT("point_count"),
+        BOUNDING_SIZE("bounding_size"),
+        ASPECT_RATIO("aspect_ratio"),
+        SOLIDITY("solidity"),
+        MOMENT_Y("moment_y"),
+        CORNERS("corners");
+
+        private final String statisticName;
+
+        FilterRule(String statisticName) {
+            this.statisticName = statisticName;
+        }
+    }
+
+    private static final FilterRule[] FILTER_RULES = FilterRule.values();
 
     public ContourPipeline() {
-        super("Contour");
+        this("Contour");
+    }
+
+    public ContourPipeline(String name) {
+        super(name);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new PotentialSmartTarget();
+        }
     }
 
     @Override
     public void process(Mat mat, Context context) {
-        Point matCenter = new Point(mat.width() / 2D, mat.height() / 2D);
-        int matWidth = mat.width();
-        int matHeight = mat.height();
-
-        Imgproc.findContours(mat, foundContours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_TC89_L1);
-        boolean drawContours = this.drawContours.get();
-
-        List<PotentialSmartTarget> potentialTargets = new ArrayList<>();
+        if (context.empty) {
+            // Coarse pass found no candidates, so there is nothing to analyse
+            lastTargetBounds = NO_BOUNDS;
+            lastTarget = null;
+            publishResult(context);
+            return;
+        }
 
+        // findContours appends to the list, so release last frame's contours first
         for (int i = 0; i < foundContours.size(); i++) {
-            MatOfPoint contour = foundContours.get(i);
+            foundContours.get(i).release();
+        }
+        foundContours.clear();
+
+        MatPool matPool = MatPool.get();
+        Mat hierarchy = matPool.borrow();
+        try {
+            // Offset puts contours in full frame coordinates when only a region was processed
+            offset.x = context.roi == null ? 0 : context.roi.x;
+            offset.y = context.roi == null ? 0 : context.roi.y;
+            if (blobLabelling.get(context)) {
+                findBlobContours(mat, context, hierarchy);
+            } else {
+                Imgproc.findContours(mat, foundContours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_TC89_L1,
+                        offset);
+            }
+        } finally {
+            matPool.giveBack(hierarchy);
+        }
+        analyseContours(mat, context);
+        publishResult(context);
+    }
 
-            // Moments
-            Moments p = Imgproc.moments(contour);
-            int momentX = (int) (p.get_m10() / p.get_m00());
-            int momentY = (int) (p.get_m01() / p.get_m00());
-            if (drawContours) {
-                Imgproc.circle(mat, new Point(momentX, momentY), 4, new Scalar(52, 122, 235));
+    /**
+     * Labels the mask's 8-connected blobs, getting every blob's area and bounding box in one pass, and only traces the
+     * outlines of blobs passing the bounding box and minimum solidity filters. A blob's pixel count is a little more
+     * than its outline's area, so this check is looser than the one in {@link #analyseContours}. Unlike
+     * RETR_EXTERNAL it also finds blobs inside another blob's hole.
+     */
+    private void findBlobContours(Mat mat, Context context, Mat hierarchy) {
+        int minBoundingRectSize = this.minBoundingRectSize.get(context);
+        double aspectRatioMin = normalBoundingRectAspectRatioMin.get(context);
+        double aspectRatioMax = normalBoundingRectAspectRatioMax.get(context);
+        double solidityMin = normalBoundingRectSolidityMin.get(context);
+        boolean drawContours = this.drawContours.get(context);
+
+        MatPool matPool = MatPool.get();
+        Mat labels = matPool.borrow();
+        Mat stats = matPool.borrow();
+        Mat centroids = matPool.borrow();
+        Mat blobMask = matPool.borrow();
+        try {
+            int count = Imgproc.connectedComponentsWithStats(mat, labels, stats, centroids, 8, CvType.CV_32S);
+            blobStats = ensureCapacity(blobStats, count * Imgproc.CC_STAT_MAX);
+            stats.get(0, 0, blobStats);
+            int traced = 0;
+            // Label 0 is the background
+            for (int label = 1; label < count; label++) {
+                int stat = label * Imgproc.CC_STAT_MAX;
+                int x = blobStats[stat + Imgproc.CC_STAT_LEFT];
+                int y = blobStats[stat + Imgproc.CC_STAT_TOP];
+                int width = blobStats[stat + Imgproc.CC_STAT_WIDTH];
+                int height = blobStats[stat + Imgproc.CC_STAT_HEIGHT];
+                double aspectRatio = (double) width / height;
+                double solidity = (double) blobStats[stat + Imgproc.CC_STAT_AREA] / (width * height);
+                if (width < minBoundingRectSize || height < minBoundingRectSize
+                        || aspectRatio < aspectRatioMin || aspectRatio > aspectRatioMax || solidity < solidityMin) {
+                    if (drawContours) {
+                        drawFailure(mat, "F blob", (int) offset.x + x + width / 2, (int) offset.y + y + height / 2);
+                    }
+                    continue;
+                }
+                traced++;
+                blobBounds.x = x;
+                blobBounds.y = y;
+                blobBounds.width = width;
+                blobBounds.height = height;
+                Mat blobLabels = labels.submat(blobBounds);
+                blobLabel.val[0] = label;
+                Core.compare(blobLabels, blobLabel, blobMask, Core.CMP_EQ);
+                blobLabels.release();
+                blobOffset.x = offset.x + x;
+                blobOffset.y = offset.y + y;
+                Imgproc.findContours(blobMask, foundContours, hierarchy, Imgproc.RETR_EXTERNAL,
+                        Imgproc.CHAIN_APPROX_TC89_L1, blobOffset);
             }
+            blobsLabelled.addAndGet(Math.max(0, count - 1));
+            blobsTraced.addAndGet(traced);
+        } finally {
+            matPool.giveBack(labels);
+            matPool.giveBack(stats);
+            matPool.giveBack(centroids);
+            matPool.giveBack(blobMask);
+        }
+    }
 
-            Rect normalBoundingRect = Imgproc.boundingRect(contour);
-            int normalBoundingRectCenterX = normalBoundingRect.x + (normalBoundingRect.width / 2);
-            int normalBoundingRectCenterY = normalBoundingRect.y + (normalBoundingRect.height / 2);
-            Point normalBoundingRectCenter = new Point(normalBoundingRectCenterX, normalBoundingRectCenterY);
+    private void publishResult(Context context) {
+        if (resultPublishers.isEmpty()) {
+            return;
+        }
+        tracker.update(context.captureTime, lastTarget, (long) (kalmanMaxCoastMs.get(context) * 1000),
+                kalmanGateSigma.get(context));
+        context.processedTime = NetworkTablesJNI.now();
+        for (int i = 0; i < resultPublishers.size(); i++) {
+            resultPublishers.get(i).publish(context, lastTarget, tracker);
+        }
+    }
 
+    /**
+     * @param intrinsics calibrated intrinsics of the camera feeding this detector, null to use the FOV constants
+     */
+    public void setIntrinsics(CameraIntrinsics intrinsics) {
+        this.intrinsics = intrinsics;
+    }
 
-            double momentXRatio = (momentX - normalBoundingRect.x) / (double) normalBoundingRect.width;
-            double momentYRatio = (momentY - normalBoundingRect.y) / (double) normalBoundingRect.height;
+    private PoseEstimator getPoseEstimator(CameraIntrinsics intrinsics) {
+        CameraIntrinsics model = intrinsics == null ? FOV_INTRINSICS : intrinsics;
+        if (poseEstimator == null) {
+            poseEstimator = new PoseEstimator(model);
+        } else {
+            poseEstimator.setIntrinsics(model);
+        }
+        return poseEstimator;
+    }
 
-            double area = Imgproc.contourArea(contour);
-            float normalBoundingRectAspectRatio = (float) normalBoundingRect.width / normalBoundingRect.height;
-            double normalBoundingRectSolidity = Imgproc.contourArea(contour)/(normalBoundingRect.width*normalBoundingRect.height);
+    /**
+     * Publishes this detector's target to the table, called by {@link PipelineGraph#attachResults}
+     */
+    public void addResultsTable(NetworkTable resultsTable) {
+        resultPublishers.add(new TargetResultPublisher(resultsTable));
+    }
 
-            var minRect = Imgproc.minAreaRect(new MatOfPoint2f(contour.toArray()));
-            Point[] minRectPoints = new Point[4];
-            minRect.points(minRectPoints);
-            RectUtil.RectanglePoints minRectPointsSorted = RectUtil.findCorners(minRectPoints, normalBoundingRectCenter);
-            var centroid = minRectPointsSorted.center;
+    /**
+     * Picks the target out of {@link #foundContours}. Works on primitive buffers and does not allocate unless
+     * drawContours is on or a contour is bigger than any seen before.
+     */
+    void analyseContours(Mat mat, Context context) {
+        MatPool matPool = MatPool.get();
+        MatOfInt hull = matPool.borrowMatOfInt();
+        MatOfPoint2f hullMat = matPool.borrowMatOfPoint2f();
+        MatOfPoint2f polyOutput = matPool.borrowMatOfPoint2f();
+        try {
+            analyseContours(mat, context, hull, hullMat, polyOutput);
+        } finally {
+            matPool.giveBack(hull);
+            matPool.giveBack(hullMat);
+            matPool.giveBack(polyOutput);
+        }
+    }
 
-            // CHECK FOR PROPERTIES
+    private void analyseContours(Mat mat, Context context, MatOfInt hull, MatOfPoint2f hullMat,
+                                 MatOfPoint2f polyOutput) {
+        // When tracking, mat only covers context.roi, so size everything by the full frame
+        int matWidth = context.width;
+        int matHeight = context.height;
+        boolean drawContours = this.drawContours.get(context);
+        double normalBoundingRectSolidityMin = this.normalBoundingRectSolidityMin.get(context);
+        double normalBoundingRectSolidityMax = this.normalBoundingRectSolidityMax.get(context);
+        double normalBoundingRectAspectRatioMin = this.normalBoundingRectAspectRatioMin.get(context);
+        double normalBoundingRectAspectRatioMax = this.normalBoundingRectAspectRatioMax.get(context);
+        double momentYRatioMin = this.momentYRatioMin.get(context);
+        double momentYRatioMax = this.momentYRatioMax.get(context);
+        int minContourPoints = this.minContourPoints.get(context);
+        int minBoundingRectSize = this.minBoundingRectSize.get(context);
+
+        double bestArea = -1;
+        long bestBounds = NO_BOUNDS;
 
-            if (normalBoundingRectSolidity < normalBoundingRectSolidityMin.get()) {
-                // Fail condition
+        for (int i = 0; i < foundContours.size(); i++) {
+            MatOfPoint contour = foundContours.get(i);
+
+            // CHECK FOR PROPERTIES, cheapest features first so most contours never reach the expensive ones
+
+            long time = System.nanoTime();
+            int pointCount = contour.rows();
+            if (pointCount < minContourPoints) {
+                reject(FilterRule.POINT_COUNT, time);
+                continue;
+            }
+            time = pass(FilterRule.POINT_COUNT, time);
+
+            // Bounding box
+            contourPoints = ensureCapacity(contourPoints, pointCount * 2);
+            contour.get(0, 0, contourPoints);
+            int[] points = contourPoints;
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int j = 0; j < pointCount * 2; j += 2) {
+                minX = Math.min(minX, points[j]);
+                maxX = Math.max(maxX, points[j]);
+                minY = Math.min(minY, points[j + 1]);
+                maxY = Math.max(maxY, points[j + 1]);
+            }
+            int boundingWidth = maxX - minX + 1;
+            int boundingHeight = maxY - minY + 1;
+            int normalBoundingRectCenterX = minX + (boundingWidth / 2);
+            int normalBoundingRectCenterY = minY + (boundingHeight / 2);
+            if (boundingWidth < minBoundingRectSize || boundingHeight < minBoundingRectSize) {
+                reject(FilterRule.BOUNDING_SIZE, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F sol min" + normalBoundingRectSolidity, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F size " + boundingWidth + "x" + boundingHeight, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
-            if (normalBoundingRectSolidity > normalBoundingRectSolidityMax.get()) {
-                // Fail condition
+            time = pass(FilterRule.BOUNDING_SIZE, time);
+
+            float normalBoundingRectAspectRatio = (float) boundingWidth / boundingHeight;
+            if (normalBoundingRectAspectRatio < normalBoundingRectAspectRatioMin) {
+                reject(FilterRule.ASPECT_RATIO, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F sol max" + normalBoundingRectSolidity, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F a.ra min" + normalBoundingRectAspectRatio, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
-            if (normalBoundingRectAspectRatio < normalBoundingRectAspectRatioMin.get()) {
-                // Fail condition
+            if (normalBoundingRectAspectRatio > normalBoundingRectAspectRatioMax) {
+                reject(FilterRule.ASPECT_RATIO, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F a.ra min" + normalBoundingRectAspectRatio, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F a.ra max" + normalBoundingRectAspectRatio, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
-            if (normalBoundingRectAspectRatio > normalBoundingRectAspectRatioMax.get()) {
-                // Fail condition
+            time = pass(FilterRule.ASPECT_RATIO, time);
+
+            // Moments and area in one pass, same formulas as Imgproc.moments and contourArea
+            double a00 = 0, a10 = 0, a01 = 0;
+            int prevX = points[pointCount * 2 - 2];
+            int prevY = points[pointCount * 2 - 1];
+            for (int j = 0; j < pointCount * 2; j += 2) {
+                int x = points[j];
+                int y = points[j + 1];
+                double cross = (double) prevX * y - (double) x * prevY;
+                a00 += cross;
+                a10 += cross * (prevX + x);
+                a01 += cross * (prevY + y);
+                prevX = x;
+                prevY = y;
+            }
+            double area = Math.abs(a00) / 2;
+            double normalBoundingRectSolidity = area / (boundingWidth * boundingHeight);
+            if (normalBoundingRectSolidity < normalBoundingRectSolidityMin) {
+                reject(FilterRule.SOLIDITY, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F a.ra max" + normalBoundingRectSolidity, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F sol min" + normalBoundingRectSolidity, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
-            if (momentYRatio < momentYRatioMin.get()) {
-                // Fail condition
+            if (normalBoundingRectSolidity > normalBoundingRectSolidityMax) {
+                reject(FilterRule.SOLIDITY, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F mo.y min" + momentYRatio, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F sol max" + normalBoundingRectSolidity, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
-            if (momentYRatio > momentYRatioMax.get()) {
-                // Fail condition
+            time = pass(FilterRule.SOLIDITY, time);
+
+            // Zero area contours have no centroid, Imgproc.moments gives 0 there too
+            int momentX = a00 == 0 ? 0 : (int) (a10 / (3 * a00));
+            int momentY = a00 == 0 ? 0 : (int) (a01 / (3 * a00));
+            if (drawContours) {
+                drawPoint.x = momentX;
+                drawPoint.y = momentY;
+                Imgproc.circle(mat, drawPoint, 4, MOMENT_COLOR);
+            }
+            double momentYRatio = (momentY - minY) / (double) boundingHeight;
+            if (momentYRatio < momentYRatioMin) {
+                reject(FilterRule.MOMENT_Y, time);
                 if (drawContours) {
-                    Imgproc.putText(mat, "F mo.y max" + normalBoundingRectSolidity, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
+                    drawFailure(mat, "F mo.y min" + momentYRatio, normalBoundingRectCenterX, normalBoundingRectCenterY);
                 }
                 continue;
             }
+            if (momentYRatio > momentYRatioMax) {
+                reject(FilterRule.MOMENT_Y, time);
+                if (drawContours) {
+                    drawFailure(mat, "F mo.y max" + momentYRatio, normalBoundingRectCenterX, normalBoundingRectCenterY);
+                }
+                continue;
+            }
+            time = pass(FilterRule.MOMENT_Y, time);
 
-            // END CHECK
+            // END CHECK, apart from the corner search below
 
             if (drawContours) {
-                Imgproc.drawContours(mat, foundContours, i, new Scalar(255, 0, 0), -1);
-                Imgproc.drawContours(mat, foundContours, i, new Scalar(255, 150, 0), 5);
+                Imgproc.drawContours(mat, foundContours, i, FILL_COLOR, -1);
+                Imgproc.drawContours(mat, foundContours, i, OUTLINE_COLOR, 5);
             }
 
             // From Chameleon
-            MatOfInt tempInt = new MatOfInt();
-            MatOfPoint2f tempMat2f = new MatOfPoint2f();
-            MatOfPoint tempMatOfPoint = new MatOfPoint();
+            Imgproc.convexHull(contour, hull);
+            int hullCount = hull.rows();
+            hullIndices = ensureCapacity(hullIndices, hullCount);
+            hullPoints = ensureCapacity(hullPoints, hullCount * 2);
+            hull.get(0, 0, hullIndices);
+            for (int j = 0; j < hullCount; j++) {
+                int index = hullIndices[j];
+                hullPoints[j * 2] = points[index * 2];
+                hullPoints[j * 2 + 1] = points[index * 2 + 1];
+            }
 
-            var convex = tempInt;
-            tempMatOfPoint.fromList(contour.toList());
-            Imgproc.convexHull(tempMatOfPoint, convex);
-            var combinedList = contour.toList();
+            if (hullCount < 3 || !minAreaRect(hullPoints, hullCount, minRectCorners)
+                    || !sortCorners(minRectCorners, normalBoundingRectCenterX, normalBoundingRectCenterY, sortedMinRectCorners)) {
+                reject(FilterRule.CORNERS, time);
+                if (drawContours) {
+                    drawFailure(mat, "F nse" + hullCount, normalBoundingRectCenterX, normalBoundingRectCenterY);
+                }
+                continue;
+            }
+            double[] minRect = sortedMinRectCorners;
+            double centroidX = (minRect[TOP_LEFT] + minRect[BOTTOM_RIGHT]) / 2;
+            double centroidY = (minRect[TOP_LEFT + 1] + minRect[BOTTOM_RIGHT + 1]) / 2;
+
+            hullMat.create(hullCount, 1, CvType.CV_32FC2);
+            hullMat.put(0, 0, hullPoints);
+            Imgproc.approxPolyDP(hullMat, polyOutput, 5, true);
+            int polyCount = polyOutput.rows();
+            polyPoints = ensureCapacity(polyPoints, polyCount * 2);
+            if (polyCount > 0) {
+                polyOutput.get(0, 0, polyPoints);
+            }
 
-            Point[] contourArray = contour.toArray();
-            Point[] hullPoints = new Point[convex.rows()];
-            List<Integer> hullContourIdxList = convex.toList();
-            for (int j = 0; j < hullContourIdxList.size(); j++) {
-                hullPoints[j] = contourArray[hullContourIdxList.get(j)];
+            // top left and top right are the poly corners closest to the bounding box (min rect) tl and tr,
+            // bottom left and bottom right are the poly corners below the centroid furthest from it
+            int tl = -1, tr = -1, bl = -1, br = -1;
+            double tlDistance = Double.MAX_VALUE, trDistance = Double.MAX_VALUE, blDistance = -1, brDistance = -1;
+            for (int j = 0; j < polyCount; j++) {
+                double x = polyPoints[j * 2];
+                double y = polyPoints[j * 2 + 1];
+                double distance = distanceSquared(x, y, minRect[TOP_LEFT], minRect[TOP_LEFT + 1]);
+                if (distance < tlDistance) {
+                    tlDistance = distance;
+                    tl = j;
+                }
+                distance = distanceSquared(x, y, minRect[TOP_RIGHT], minRect[TOP_RIGHT + 1]);
+                if (distance < trDistance) {
+                    trDistance = distance;
+                    tr = j;
+                }
+                if (y > centroidY) {
+                    distance = distanceSquared(x, y, centroidX, centroidY);
+                    if (x < centroidX && distance > blDistance) {
+                        blDistance = distance;
+                        bl = j;
+                    } else if (x > centroidX && distance > brDistance) {
+                        brDistance = distance;
+                        br = j;
+                    }
+                }
+            }
+            if (tl < 0 || tr < 0 || bl < 0 || br < 0) {
+                reject(FilterRule.CORNERS, time);
+                if (drawContours) {
+                    drawFailure(mat, "F nse" + normalBoundingRectSolidity, normalBoundingRectCenterX, normalBoundingRectCenterY);
+                }
+                continue;
             }
-            tempMat2f.fromArray(hullPoints);
 
-            MatOfPoint2f polyOutput = new MatOfPoint2f(); //todo :reuse mats
-            Imgproc.approxPolyDP(tempMat2f, polyOutput, 5, true);
+            double minRectArea = Math.sqrt(distanceSquared(minRect[TOP_LEFT], minRect[TOP_LEFT + 1],
+                    minRect[BOTTOM_LEFT], minRect[BOTTOM_LEFT + 1]))
+                    * Math.sqrt(distanceSquared(minRect[TOP_LEFT], minRect[TOP_LEFT + 1],
+                    minRect[TOP_RIGHT], minRect[TOP_RIGHT + 1]));
+            pass(FilterRule.CORNERS, time);
+
+            // Biggest min rect wins, the first one on ties
+            if (minRectArea > bestArea) {
+                bestArea = minRectArea;
+                bestBounds = boundsOf(minRectCorners);
+                System.arraycopy(minRect, 0, bestMinRectCorners, 0, 8);
+                setCorner(bestTargetCorners, TOP_LEFT, polyPoints, tl);
+                setCorner(bestTargetCorners, TOP_RIGHT, polyPoints, tr);
+                setCorner(bestTargetCorners, BOTTOM_LEFT, polyPoints, bl);
+                setCorner(bestTargetCorners, BOTTOM_RIGHT, polyPoints, br);
+            }
+        }
 
-            var polyList = polyOutput.toList();
+        if (bestBounds != NO_BOUNDS) {
+            PotentialSmartTarget target = targets[nextTarget];
+            nextTarget = (nextTarget + 1) % targets.length;
+            target.set(bestMinRectCorners, bestBounds, bestTargetCorners, bestArea, matWidth, matHeight);
+            CameraIntrinsics intrinsics = this.intrinsics;
+            double[] poseCorners = bestTargetCorners;
+            if (intrinsics != null) {
+                // Only the corners are undistorted, the published corners and bounds stay in frame pixels
+                PoseEstimator poseEstimator = getPoseEstimator(intrinsics);
+                poseEstimator.undistort(bestTargetCorners, undistortedCorners, matWidth, matHeight);
+                poseEstimator.setAngles(undistortedCorners, matWidth, matHeight, target);
+                poseCorners = undistortedCorners;
+            }
+            if (solvePose.get(context)) {
+                long poseStart = System.nanoTime();
+                target.poseValid = getPoseEstimator(intrinsics).solve(poseCorners, matWidth, matHeight, target);
+                poseNanos.addAndGet(System.nanoTime() - poseStart);
+                poseSolves.incrementAndGet();
+            }
+            lastTargetBounds = bestBounds;
+            lastTarget = target;
+        } else {
+            // Lost the target, next frame searches the full frame
+            if (poseEstimator != null) {
+                poseEstimator.reset();
+            }
+            lastTargetBounds = NO_BOUNDS;
+            lastTarget = null;
+        }
+        lastFrameWidth = matWidth;
+        lastFrameHeight = matHeight;
+
+        for (int rule = 0; rule < FILTER_RULES.length; rule++) {
+            checked.addAndGet(rule, frameChecked[rule]);
+            rejected.addAndGet(rule, frameRejected[rule]);
+            nanos.addAndGet(rule, frameNanos[rule]);
+            frameChecked[rule] = 0;
+            frameRejected[rule] = 0;
+            frameNanos[rule] = 0;
+        }
+    }
 
-            Comparator<Point> distanceProvider = Comparator.comparingDouble((Point point) -> Math.sqrt(Math.pow(centroid.x - point.x, 2) + Math.pow(centroid.y - point.y, 2)));
+    /**
+     * Charges the time since start to the rule
+     * @return now, so the next rule is timed from here
+     */
+    private long pass(FilterRule rule, long start) {
+        long now = System.nanoTime();
+        frameChecked[rule.ordinal()]++;
+        frameNanos[rule.ordinal()] += now - start;
+        return now;
+    }
 
-            try {
+    private void reject(FilterRule rule, long start) {
+        pass(rule, start);
+        frameRejected[rule.ordinal()]++;
+    }
 
-                // top left and top right are the poly corners closest to the bounding box (min rect) tl and tr
-                Point tl = polyList.stream().min(Comparator.comparingDouble((Point p1) -> distanceBetween(p1, minRectPointsSorted.topLeft))).get();
-                Point tr = polyList.stream().min(Comparator.comparingDouble((Point p1) -> distanceBetween(p1, minRectPointsSorted.topRight))).get();
+    /**
+     * Publishes how many contours each rule checked and rejected and its mean cost per check since the last call,
+     * how many times the Kalman tracker restarted on a new target, the pose solver's mean cost and how many labelled
+     * blobs had their outline traced
+     */
+    public void publishFilterStatistics(NetworkTable statisticsTable) {
+        for (FilterRule rule : FILTER_RULES) {
+            long ruleChecked = checked.getAndSet(rule.ordinal(), 0);
+            long ruleRejected = rejected.getAndSet(rule.ordinal(), 0);
+            long ruleNanos = nanos.getAndSet(rule.ordinal(), 0);
+            String prefix = getName().toLowerCase() + "_filter_" + rule.statisticName;
+            statisticsTable.getEntry(prefix + "_checked").setDouble(ruleChecked);
+            statisticsTable.getEntry(prefix + "_rejected").setDouble(ruleRejected);
+            statisticsTable.getEntry(prefix + "_mean_ns").setDouble(ruleChecked == 0 ? 0 : (double) ruleNanos / ruleChecked);
+        }
+        statisticsTable.getEntry(getName().toLowerCase() + "_kalman_resets").setDouble(tracker.getResets());
+        long solves = poseSolves.getAndSet(0);
+        long solveNanos = poseNanos.getAndSet(0);
+        statisticsTable.getEntry(getName().toLowerCase() + "_pose_solves").setDouble(solves);
+        statisticsTable.getEntry(getName().toLowerCase() + "_pose_mean_ns").setDouble(solves == 0 ? 0 : (double) solveNanos / solves);
+        statisticsTable.getEntry(getName().toLowerCase() + "_blobs_labelled").setDouble(blobsLabelled.getAndSet(0));
+        statisticsTable.getEntry(getName().toLowerCase() + "_blobs_traced").setDouble(blobsTraced.getAndSet(0));
+    }
 
+    private void drawFailure(Mat mat, String text, int x, int y) {
+        drawPoint.x = x;
+        drawPoint.y = y;
+        Imgproc.putText(mat, text, drawPoint, Core.FONT_HERSHEY_SIMPLEX, 0.5, FAIL_COLOR, 1);
+    }
 
-                var bl = polyList.stream().filter(point -> point.x < centroid.x && point.y > centroid.y).max(distanceProvider).get();
-                var br = polyList.stream().filter(point -> point.x > centroid.x && point.y > centroid.y).max(distanceProvider).get();
+    /**
+     * Rotating calipers over a convex hull, the primitive version of Imgproc.minAreaRect.
+     * Writes the corners as x/y pairs going around the rectangle.
+     *
+     * @return false if the hull has no extent
+     */
+    private static boolean minAreaRect(float[] hull, int count, double[] corners) {
+        double bestArea = Double.MAX_VALUE;
+        double bestUx = 0, bestUy = 0, bestMinU = 0, bestMaxU = 0, bestMinV = 0, bestMaxV = 0;
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) % count;
+            double ux = hull[next * 2] - hull[i * 2];
+            double uy = hull[next * 2 + 1] - hull[i * 2 + 1];
+            double length = Math.sqrt(ux * ux + uy * uy);
+            if (length == 0) {
+                continue;
+            }
+            ux /= length;
+            uy /= length;
+            // Project the hull onto the edge direction u and its normal v
+            double minU = Double.MAX_VALUE, maxU = -Double.MAX_VALUE, minV = Double.MAX_VALUE, maxV = -Double.MAX_VALUE;
+            for (int j = 0; j < count; j++) {
+                double x = hull[j * 2];
+                double y = hull[j * 2 + 1];
+                double u = x * ux + y * uy;
+                double v = y * ux - x * uy;
+                minU = Math.min(minU, u);
+                maxU = Math.max(maxU, u);
+                minV = Math.min(minV, v);
+                maxV = Math.max(maxV, v);
+            }
+            double area = (maxU - minU) * (maxV - minV);
+            if (area < bestArea) {
+                bestArea = area;
+                bestUx = ux;
+                bestUy = uy;
+                bestMinU = minU;
+                bestMaxU = maxU;
+                bestMinV = minV;
+                bestMaxV = maxV;
+            }
+        }
+        if (bestArea == Double.MAX_VALUE) {
+            return false;
+        }
+        setRotated(corners, 0, bestMinU, bestMinV, bestUx, bestUy);
+        setRotated(corners, 2, bestMaxU, bestMinV, bestUx, bestUy);
+        setRotated(corners, 4, bestMaxU, bestMaxV, bestUx, bestUy);
+        setRotated(corners, 6, bestMinU, bestMaxV, bestUx, bestUy);
+        return true;
+    }
 
-                RectUtil.RectanglePoints targetCorners = new RectUtil.RectanglePoints(tl, tr, bl, br);
+    private static void setRotated(double[] corners, int index, double u, double v, double ux, double uy) {
+        corners[index] = u * ux - v * uy;
+        corners[index + 1] = u * uy + v * ux;
+    }
 
-                potentialTargets.add(
-                        new PotentialSmartTarget(
-                                targetCorners.center,
-                                minRectPointsSorted,
-                                targetCorners,
-                                minRectPointsSorted.calculateArea(),
-                                matCenter,
-                                matWidth,
-                                matHeight)
-                );
-                //return target2020ResultMat;
-            } catch (NoSuchElementException e) {
-                if (drawContours) {
-                    Imgproc.putText(mat, "F nse" + normalBoundingRectSolidity, normalBoundingRectCenter,
-                            Core.FONT_HERSHEY_SIMPLEX, 0.5, new Scalar(255, 0, 255), 1);
-                }
+    /**
+     * Primitive version of {@link RectUtil#findCorners}, sorts four corners into TOP_LEFT..BOTTOM_RIGHT order
+     * by their quadrant around the center.
+     *
+     * @return false if a quadrant has no corner
+     */
+    private static boolean sortCorners(double[] corners, double centerX, double centerY, double[] sorted) {
+        int found = 0;
+        for (int i = 0; i < 8; i += 2) {
+            double x = corners[i];
+            double y = corners[i + 1];
+            int index;
+            if (x < centerX && y < centerY) {
+                index = TOP_LEFT;
+            } else if (x > centerX && y < centerY) {
+                index = TOP_RIGHT;
+            } else if (x < centerX && y > centerY) {
+                index = BOTTOM_LEFT;
+            } else if (x > centerX && y > centerY) {
+                index = BOTTOM_RIGHT;
+            } else {
                 continue;
             }
+            sorted[index] = x;
+            sorted[index + 1] = y;
+            found |= 1 << index;
         }
+        return found == (1 << TOP_LEFT | 1 << TOP_RIGHT | 1 << BOTTOM_LEFT | 1 << BOTTOM_RIGHT);
+    }
 
-        Optional<PotentialSmartTarget> potentialTargetOptional = potentialTargets.stream().max(Comparator.comparingDouble(o -> o.minRectArea));
-        if (potentialTargetOptional.isPresent()) {
-            PotentialSmartTarget target = potentialTargetOptional.get();
-            resultsTable.getEntry("x").setDouble(target.center.x);
-            resultsTable.getEntry("y").setDouble(target.center.y);
-            resultsTable.getEntry("degX").setDouble(target.degreesHorizontal);
-            resultsTable.getEntry("degY").setDouble(target.degreesVertical);
-            resultsTable.getEntry("minRectArea").setDouble(target.minRectArea);
+    private static void setCorner(double[] corners, int index, float[] points, int point) {
+        corners[index] = points[point * 2];
+        corners[index + 1] = points[point * 2 + 1];
+    }
+
+    private static double distanceSquared(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Same rounding as RotatedRect.boundingRect(), packed with {@link #packBounds}
+     */
+    private static long boundsOf(double[] corners) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < 8; i += 2) {
+            minX = Math.min(minX, corners[i]);
+            maxX = Math.max(maxX, corners[i]);
+            minY = Math.min(minY, corners[i + 1]);
+            maxY = Math.max(maxY, corners[i + 1]);
         }
+        int x = (int) Math.floor(minX);
+        int y = (int) Math.floor(minY);
+        return packBounds(x, y, (int) Math.ceil(maxX) - x + 1, (int) Math.ceil(maxY) - y + 1);
+    }
+
+    // 16 bits per field is plenty for camera frames, x and y may be slightly negative
+    private static long packBounds(int x, int y, int width, int height) {
+        return (x & 0xFFFFL) << 48 | (y & 0xFFFFL) << 32 | (width & 0xFFFFL) << 16 | (height & 0xFFFFL);
+    }
+
+    private static int boundsX(long bounds) {
+        return (short) (bounds >>> 48);
+    }
+
+    private static int boundsY(long bounds) {
+        return (short) (bounds >>> 32);
+    }
+
+    private static int boundsWidth(long bounds) {
+        return (int) ((bounds >>> 16) & 0xFFFF);
+    }
+
+    private static int boundsHeight(long bounds) {
+        return (int) (bounds & 0xFFFF);
+    }
+
+    private static int[] ensureCapacity(int[] buffer, int length) {
+        return buffer.length >= length ? buffer : new int[Math.max(length, buffer.length * 2)];
+    }
+
+    private static float[] ensureCapacity(float[] buffer, int length) {
+        return buffer.length >= length ? buffer : new float[Math.max(length, buffer.length * 2)];
+    }
+
+    @Override
+    public boolean runsOnEmptyFrames() {
+        return true;
     }
 
     /**
-     * Targets that we detect corners for
+     * @return the target chosen in the last processed frame, or null if there was none
+     */
+    public PotentialSmartTarget getLastTarget() {
+        return lastTarget;
+    }
+
+    /**
+     * @return 2 or 4, or 1 for no coarse pass. Other values are treated as 1 since the levels would not line up with
+     * full resolution pixels
+     */
+    int getPyramidScale(Context context) {
+        int scale = pyramidScale.get(context);
+        return scale == 2 || scale == 4 ? scale : 1;
+    }
+
+    double getAspectRatioMin(Context context) {
+        return normalBoundingRectAspectRatioMin.get(context);
+    }
+
+    double getAspectRatioMax(Context context) {
+        return normalBoundingRectAspectRatioMax.get(context);
+    }
+
+    /**
+     * Forgets the last target, its track and the pose guess, so the next frame is handled as if it were the first
+     */
+    public void resetTracking() {
+        lastTargetBounds = NO_BOUNDS;
+        lastTarget = null;
+        tracker.clear();
+        if (poseEstimator != null) {
+            poseEstimator.reset();
+        }
+    }
+
+    /**
+     * @return the region around the last target to search in the next frame, or null to search the full frame
+     */
+    public Rect getTrackingWindow(Context context) {
+        long bounds = lastTargetBounds;
+        // Annotations are drawn in full frame coordinates, so never track while drawing
+        if (bounds == NO_BOUNDS || !trackingEnabled.get(context) || drawContours.get(context)) {
+            return null;
+        }
+        int boundsX = boundsX(bounds);
+        int boundsY = boundsY(bounds);
+        int boundsWidth = boundsWidth(bounds);
+        int boundsHeight = boundsHeight(bounds);
+        double margin = trackingMargin.get(context);
+        int marginX = (int) Math.ceil(boundsWidth * margin);
+        int marginY = (int) Math.ceil(boundsHeight * margin);
+        int x1 = Math.max(0, boundsX - marginX);
+        int y1 = Math.max(0, boundsY - marginY);
+        int x2 = Math.min(lastFrameWidth, boundsX + boundsWidth + marginX);
+        int y2 = Math.min(lastFrameHeight, boundsY + boundsHeight + marginY);
+        if (x2 - x1 < 2 || y2 - y1 < 2) {
+            return null;
+        }
+        return new Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * Targets that we detect corners for. Instances are reused by the pipeline a few frames later.
      */
     public static class PotentialSmartTarget {
-        public Point center;
-        public RectUtil.RectanglePoints minRect;
-        public RectUtil.RectanglePoints targetCorners;
+        public Point center = new Point();
+        public RectUtil.RectanglePoints minRect = newRectanglePoints();
+        public Rect minRectBounds = new Rect();
+        public RectUtil.RectanglePoints targetCorners = newRectanglePoints();
         public double minRectArea;
         public double degreesHorizontal;
         public double degreesVertical;
-
-        public PotentialSmartTarget(Point center, RectUtil.RectanglePoints minRect, RectUtil.RectanglePoints targetCorners,
-                                    double minRectArea, Point matCenter, int matWidth, int matHeight) {
-            this.center = center;
-            this.minRect = minRect;
-            this.targetCorners = targetCorners;
+        // Port pose from the target corners, set when poseValid. Metres and radians
+        public boolean poseValid;
+        public double range;
+        public double bearing;
+        public double skew;
+
+        void set(double[] minRectCorners, long minRectBounds, double[] targetCorners, double minRectArea,
+                 int matWidth, int matHeight) {
+            setPoints(this.minRect, minRectCorners);
+            this.minRectBounds.x = boundsX(minRectBounds);
+            this.minRectBounds.y = boundsY(minRectBounds);
+            this.minRectBounds.width = boundsWidth(minRectBounds);
+            this.minRectBounds.height = boundsHeight(minRectBounds);
+            setPoints(this.targetCorners, targetCorners);
+            this.center.x = this.targetCorners.center.x;
+            this.center.y = this.targetCorners.center.y;
             this.minRectArea = minRectArea;
-            this.degreesHorizontal = ((center.x - matCenter.x) / matWidth) * Constants.PSEYE_HORIZONTAL_FOV;
-            this.degreesVertical = ((center.x - matCenter.x) / matWidth) * Constants.PSEYE_VERTICAL_FOV;
+            double matCenterX = matWidth / 2D;
+            double matCenterY = matHeight / 2D;
+            this.degreesHorizontal = ((center.x - matCenterX) / matWidth) * Constants.PSEYE_HORIZONTAL_FOV;
+            this.degreesVertical = ((center.y - matCenterY) / matHeight) * Constants.PSEYE_VERTICAL_FOV;
+            this.poseValid = false;
+        }
+
+        private static RectUtil.RectanglePoints newRectanglePoints() {
+            return new RectUtil.RectanglePoints(new Point(), new Point(), new Point(), new Point(), new Point());
         }
-    }
 
-    private double distanceBetween(Point a, Point b) {
-        return Math.sqrt(Math.pow(a.x - b.x, 2) + Math.pow(a.y - b.y, 2));
+        private static void setPoints(RectUtil.RectanglePoints points, double[] corners) {
+            points.topLeft.x = corners[TOP_LEFT];
+            points.topLeft.y = corners[TOP_LEFT + 1];
+            points.topRight.x = corners[TOP_RIGHT];
+            points.topRight.y = corners[TOP_RIGHT + 1];
+            points.bottomLeft.x = corners[BOTTOM_LEFT];
+            points.bottomLeft.y = corners[BOTTOM_LEFT + 1];
+            points.bottomRight.x = corners[BOTTOM_RIGHT];
+            points.bottomRight.y = corners[BOTTOM_RIGHT + 1];
+            points.center.x = (corners[TOP_LEFT] + corners[BOTTOM_RIGHT]) / 2;
+            points.center.y = (corners[TOP_LEFT + 1] + corners[BOTTOM_RIGHT + 1]) / 2;
+        }
     }
 
     @Override
     public List<Setting<?>> getSettings() {
-        return List.of(drawContours, normalBoundingRectSolidityMin, normalBoundingRectSolidityMax, normalBoundingRectAspectRatioMin,
-                normalBoundingRectAspectRatioMax, momentYRatioMin, momentYRatioMax);
+        return List.of(drawContours, minContourPoints, minBoundingRectSize, normalBoundingRectSolidityMin, normalBoundingRectSolidityMax, normalBoundingRectAspectRatioMin,
+                normalBoundingRectAspectRatioMax, momentYRatioMin, momentYRatioMax, trackingEnabled, trackingMargin,
+                pyramidScale, kalmanMaxCoastMs, kalmanGateSigma, solvePose, blobLabelling);
     }
 }
@@ -12,16 +12,32 @@ public class ErodeDilatePipeline extends Pipeline {
     private Setting<Integer> closeWidth = new Setting<>("closeWidth", Integer.class, 3, BuiltInWidgets.kTextView);
     private Setting<Integer> closeHeight = new Setting<>("closeHeight", Integer.class, 3, BuiltInWidgets.kTextView);
 
+    private Mat kernel;
+    private int kernelWidth = -1;
+    private int kernelHeight = -1;
+
     public ErodeDilatePipeline() {
-        super("ErodeDilate");
+        this("ErodeDilate");
+    }
+
+    public ErodeDilatePipeline(String name) {
+        super(name);
     }
 
     @Override
     public void process(Mat mat, Context context) {
-        double closeWidth = this.closeWidth.get();
-        double closeHeight = this.closeHeight.get();
+        int closeWidth = this.closeWidth.get(context);
+        int closeHeight = this.closeHeight.get(context);
 
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_CROSS, new Size(closeWidth,closeHeight)); //todo : cache
+        // Only rebuild the structuring element when the settings change
+        if (kernel == null || closeWidth != kernelWidth || closeHeight != kernelHeight) {
+            if (kernel != null) {
+                kernel.release();
+            }
+            kernel = Imgproc.getStructuringElement(Imgproc.MORPH_CROSS, new Size(closeWidth, closeHeight));
+            kernelWidth = closeWidth;
+            kernelHeight = closeHeight;
+        }
         Imgproc.morphologyEx(mat, mat, Imgproc.MORPH_CLOSE, kernel);
     }
 
@@ -0,0 +1,98 @@
+package frc4277.vision.pipelines;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * BGR to binary threshold through a lookup table of every quantized color, replacing cvtColor + inRange with one table
+ * read per pixel. Pixels are copied out of and back into native memory around the Java loop.
+ * The table is built with the same cvtColor + inRange as {@link HSVPipeline} on the center color of each bin, and only
+ * rebuilt when a bound changes. Colors near a bound can land on the other side of it than with cvtColor + inRange,
+ * {@code HSVThresholdBenchmark} measures how many mask pixels differ.
+ */
+class HSVLookupTable {
+    // 6 bits per channel keeps the table at 256 KB so it stays in the Pi's cache
+    static final int BITS_PER_CHANNEL = 6;
+    private static final int LEVELS = 1 << BITS_PER_CHANNEL;
+    private static final int SHIFT = 8 - BITS_PER_CHANNEL;
+    private static final int TABLE_SIZE = LEVELS * LEVELS * LEVELS;
+
+    private final ThreadLocal<byte[]> pixelBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+    private final ThreadLocal<byte[]> maskBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+    private volatile byte[] table;
+    private volatile int[] tableBounds;
+
+    /**
+     * Thresholds a BGR mat into a single channel 0/255 mask like {@link HSVPipeline}, output may be mat itself
+     */
+    void threshold(Mat mat, Mat output, int hMin, int sMin, int vMin, int hMax, int sMax, int vMax) {
+        byte[] table = getTable(hMin, sMin, vMin, hMax, sMax, vMax);
+
+        int rows = mat.rows();
+        int cols = mat.cols();
+        int pixels = rows * cols;
+        byte[] pixelBytes = pixelBuffer.get();
+        if (pixelBytes.length < pixels * 3) {
+            pixelBytes = new byte[pixels * 3];
+            pixelBuffer.set(pixelBytes);
+        }
+        byte[] maskBytes = maskBuffer.get();
+        if (maskBytes.length < pixels) {
+            maskBytes = new byte[pixels];
+            maskBuffer.set(maskBytes);
+        }
+
+        mat.get(0, 0, pixelBytes);
+        for (int i = 0, p = 0; i < pixels; i++, p += 3) {
+            int index = (((pixelBytes[p] & 0xFF) >> SHIFT) << (2 * BITS_PER_CHANNEL))
+                    | (((pixelBytes[p + 1] & 0xFF) >> SHIFT) << BITS_PER_CHANNEL)
+                    | ((pixelBytes[p + 2] & 0xFF) >> SHIFT);
+            maskBytes[i] = table[index];
+        }
+        output.create(rows, cols, CvType.CV_8UC1);
+        output.put(0, 0, maskBytes);
+    }
+
+    private byte[] getTable(int hMin, int sMin, int vMin, int hMax, int sMax, int vMax) {
+        int[] bounds = tableBounds;
+        if (bounds != null && bounds[0] == hMin && bounds[1] == sMin && bounds[2] == vMin
+                && bounds[3] == hMax && bounds[4] == sMax && bounds[5] == vMax) {
+            return table;
+        }
+        synchronized (this) {
+            byte[] newTable = buildTable(hMin, sMin, vMin, hMax, sMax, vMax);
+            table = newTable;
+            tableBounds = new int[]{hMin, sMin, vMin, hMax, sMax, vMax};
+            return newTable;
+        }
+    }
+
+    private static byte[] buildTable(int hMin, int sMin, int vMin, int hMax, int sMax, int vMax) {
+        // One pixel per quantized color, using the center of each bin
+        byte[] colors = new byte[TABLE_SIZE * 3];
+        int half = (1 << SHIFT) / 2;
+        for (int index = 0; index < TABLE_SIZE; index++) {
+            int b = index >> (2 * BITS_PER_CHANNEL);
+            int g = (index >> BITS_PER_CHANNEL) & (LEVELS - 1);
+            int r = index & (LEVELS - 1);
+            colors[index * 3] = (byte) ((b << SHIFT) + half);
+            colors[index * 3 + 1] = (byte) ((g << SHIFT) + half);
+            colors[index * 3 + 2] = (byte) ((r << SHIFT) + half);
+        }
+
+        Mat colorMat = new Mat(1, TABLE_SIZE, CvType.CV_8UC3);
+        try {
+            colorMat.put(0, 0, colors);
+            Imgproc.cvtColor(colorMat, colorMat, Imgproc.COLOR_BGR2HSV, 3);
+            Core.inRange(colorMat, new Scalar(hMin, sMin, vMin), new Scalar(hMax, sMax, vMax), colorMat);
+            byte[] table = new byte[TABLE_SIZE];
+            colorMat.get(0, 0, table);
+            return table;
+        } finally {
+            colorMat.release();
+        }
+    }
+}
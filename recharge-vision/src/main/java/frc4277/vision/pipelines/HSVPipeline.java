@@ -2,7 +2,9 @@ package frc4277.vision.pipelines;
 
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import frc4277.vision.pipelines.setting.Setting;
+import frc4277.vision.util.MatPool;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
@@ -16,29 +18,56 @@ public class HSVPipeline extends Pipeline {
     private Setting<Integer> sMax = new Setting<>("s_max", Integer.class, 255, BuiltInWidgets.kTextView);
     private Setting<Integer> vMin = new Setting<>("v_min", Integer.class, 50, BuiltInWidgets.kTextView);
     private Setting<Integer> vMax = new Setting<>("v_max", Integer.class, 255, BuiltInWidgets.kTextView);
+    // Threshold through a quantized color lookup table instead of cvtColor + inRange, masks differ slightly near bounds
+    private Setting<Boolean> lookupTable = new Setting<>("lookupTable", Boolean.class, false, BuiltInWidgets.kToggleSwitch);
+    private HSVLookupTable hsvLookupTable = new HSVLookupTable();
 
 
     HSVPipeline() {
-        super("HSV");
+        this("HSV");
+    }
+
+    HSVPipeline(String name) {
+        super(name);
     }
 
     @Override
     public void process(Mat mat, Context context) {
-        // 3 = 3 channels (H, S, V)
-        Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2HSV, 3);
-        // HSV Threshold
-        Core.inRange(mat,
-                new Scalar(hMin.get()
-                        , sMin.get(),
-                        vMin.get()),
-                new Scalar(hMax.get(),
-                        sMax.get(),
-                        vMax.get()),
-        mat);
+        process(mat, mat, context);
+    }
+
+    /**
+     * Leaves the BGR frame alone and writes the single channel 0/255 mask to output
+     */
+    @Override
+    public boolean process(Mat mat, Mat output, Context context) {
+        if (lookupTable.get(context) && mat.type() == CvType.CV_8UC3) {
+            hsvLookupTable.threshold(mat, output, hMin.get(context), sMin.get(context), vMin.get(context),
+                    hMax.get(context), sMax.get(context), vMax.get(context));
+            return true;
+        }
+        MatPool matPool = MatPool.get();
+        Mat hsv = matPool.borrow();
+        try {
+            // 3 = 3 channels (H, S, V)
+            Imgproc.cvtColor(mat, hsv, Imgproc.COLOR_BGR2HSV, 3);
+            // HSV Threshold
+            Core.inRange(hsv,
+                    new Scalar(hMin.get(context)
+                            , sMin.get(context),
+                            vMin.get(context)),
+                    new Scalar(hMax.get(context),
+                            sMax.get(context),
+                            vMax.get(context)),
+            output);
+        } finally {
+            matPool.giveBack(hsv);
+        }
+        return true;
     }
 
     @Override
     public List<Setting<?>> getSettings() {
-        return List.of(hMin, hMax, sMin, sMax, vMin, vMax);
+        return List.of(hMin, hMax, sMin, sMax, vMin, vMax, lookupTable);
     }
 }
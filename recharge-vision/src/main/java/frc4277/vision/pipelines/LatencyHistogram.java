@@ -0,0 +1,127 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.first.networktables.NetworkTable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation-free log-linear histogram of nanosecond latencies, accurate to 1/16 (~6%) of the value.
+ * Any thread may record. Snapshots reset the histogram and should only be taken by one thread at a time,
+ * so each published percentile covers the interval since the previous snapshot.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below 2 * SUB_BUCKETS are exact, then each power of two is split into SUB_BUCKETS buckets
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    // Last snapshot, only touched by the snapshotting thread
+    private final long[] snapshot = new long[BUCKET_COUNT];
+    private long snapshotCount;
+    private long snapshotTotalNanos;
+    private long snapshotMaxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, highestBit - SUB_BUCKET_BITS);
+        return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the largest value that falls in the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long top = index - ((long) shift * SUB_BUCKETS);
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Moves everything recorded since the last snapshot into the snapshot and resets the histogram
+     */
+    public void snapshotAndReset() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = counts.getAndSet(i, 0);
+            snapshot[i] = bucketCount;
+            count += bucketCount;
+        }
+        snapshotCount = count;
+        snapshotTotalNanos = totalNanos.getAndSet(0);
+        snapshotMaxNanos = maxNanos.getAndSet(0);
+    }
+
+    public long getCount() {
+        return snapshotCount;
+    }
+
+    public long getMaxNanos() {
+        return snapshotMaxNanos;
+    }
+
+    public double getMeanNanos() {
+        return snapshotCount == 0 ? 0 : snapshotTotalNanos / (double) snapshotCount;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     */
+    public long getPercentileNanos(double percentile) {
+        if (snapshotCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * snapshotCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                // Never report more than what was actually recorded
+                return Math.min(bucketUpperBound(i), snapshotMaxNanos);
+            }
+        }
+        return snapshotMaxNanos;
+    }
+
+    /**
+     * Snapshots and publishes name_time (mean), name_p50, name_p95, name_p99 and name_max in milliseconds
+     */
+    public void publish(NetworkTable table, String name) {
+        snapshotAndReset();
+        table.getEntry(name + "_time").setDouble(getMeanNanos() / 1e6);
+        table.getEntry(name + "_p50").setDouble(getPercentileNanos(0.50) / 1e6);
+        table.getEntry(name + "_p95").setDouble(getPercentileNanos(0.95) / 1e6);
+        table.getEntry(name + "_p99").setDouble(getPercentileNanos(0.99) / 1e6);
+        table.getEntry(name + "_max").setDouble(getMaxNanos() / 1e6);
+    }
+
+    /**
+     * Summary of the last snapshot, for headless runners
+     */
+    public String format() {
+        return String.format("mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms (%d samples)",
+                getMeanNanos() / 1e6, getPercentileNanos(0.50) / 1e6, getPercentileNanos(0.95) / 1e6,
+                getPercentileNanos(0.99) / 1e6, getMaxNanos() / 1e6, getCount());
+    }
+}
@@ -2,79 +2,297 @@ package frc4277.vision.pipelines;
 
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.vision.VisionPipeline;
+import edu.wpi.first.networktables.NetworkTablesJNI;
 import frc4277.vision.Main;
+import frc4277.vision.pipelines.setting.SettingsSnapshot;
+import frc4277.vision.replay.FrameRecorder;
+import frc4277.vision.util.MatPool;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class MainPipeline implements VisionPipeline {
     private static final long UPDATE_STATISTICS_PERIOD_MS = 5000;
 
+    // Null when running headless (benchmarks), debug output is then disabled
     private Main main;
     private NetworkTable statisticsTable;
     private long lastStatisticsUpdate = -1;
-    private Map<Pipelines,RollingDoubleAverage> averagePipelinesMs = new HashMap<>();
-    private RollingDoubleAverage averageFrameMs = new RollingDoubleAverage(30);
+    private PipelineGraph graph;
+    // Serial processing only, the staged runner keeps outputs per frame
+    private PipelineGraph.Outputs outputs;
+    private LatencyHistogram[] stageHistograms;
+    private LatencyHistogram frameHistogram = new LatencyHistogram();
+    private LatencyHistogram coarseHistogram = new LatencyHistogram();
+    private LatencyHistogram fineHistogram = new LatencyHistogram();
+    private LatencyHistogram captureLatencyHistogram = new LatencyHistogram();
+    // Extra histograms fed the same capture latencies, e.g. the latency governor's
+    private List<LatencyHistogram> captureLatencyObservers = new CopyOnWriteArrayList<>();
+    private PyramidDetector pyramidDetector = new PyramidDetector();
+    // Scale of the last finished frame, for statistics
+    private volatile int lastPyramidScale = 1;
+    private volatile FrameRecorder frameRecorder;
+    private List<Consumer<NetworkTable>> statisticsPublishers = new CopyOnWriteArrayList<>();
+    // System.nanoTime() when the last frame finished, 0 before the first. Watched by VisionWatchdog
+    private volatile long lastFrameNanos = 0;
+    // Token of the runner allowed to process frames. A restart claims a new one, so a thread of the runner it replaced
+    // that comes back from a stall stops before touching the stages again
+    private final AtomicLong owner = new AtomicLong();
 
     public MainPipeline(Main main, NetworkTable statisticsTable) {
+        this(main, statisticsTable, PipelineGraph.defaultGraph());
+    }
+
+    public MainPipeline(Main main, NetworkTable statisticsTable, PipelineGraph graph) {
         this.main = main;
         this.statisticsTable = statisticsTable;
+        this.graph = graph;
+        this.outputs = new PipelineGraph.Outputs(graph);
 
-        for (Pipelines pipeline : Pipelines.values()) {
-            averagePipelinesMs.put(pipeline, new RollingDoubleAverage(20));
+        stageHistograms = new LatencyHistogram[graph.getNodes().size()];
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i] = new LatencyHistogram();
+        }
+        addStatisticsPublisher(MatPool::publishStatistics);
+        for (PipelineGraph.Node node : graph.getNodes()) {
+            if (node.getPipeline() instanceof ContourPipeline) {
+                addStatisticsPublisher(((ContourPipeline) node.getPipeline())::publishFilterStatistics);
+            }
         }
     }
 
     @Override
     public void process(Mat mat) {
+        process(mat, 0);
+    }
+
+    /**
+     * @param captureTime cscore capture timestamp in microseconds, 0 if unknown
+     */
+    public void process(Mat mat, long captureTime) {
+        process(mat, captureTime, owner.get());
+    }
+
+    /**
+     * @param token from {@link #claim()}
+     * @return false if another runner has claimed this pipeline, the frame was abandoned and the caller should exit
+     */
+    public boolean process(Mat mat, long captureTime, long token) {
+        if (!isOwner(token)) {
+            return false;
+        }
         // Remember start time
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
+        Pipeline.Context context = new Pipeline.Context(mat.width(), mat.height());
+        context.captureTime = captureTime;
+        Mat working = beginFrame(mat, context);
 
         // Process through pipelines
-        for (Pipelines pipelineEnum : Pipelines.values()) {
-            // Remember pipeline start time
-            long pipelineStartTime = System.currentTimeMillis();
-
-            // Run pipeline
-            try {
-                Pipeline pipeline = pipelineEnum.getInstance();
-                pipeline.process(mat);
-
-                if (main.isPsEyeOutput() && Objects.equals(main.getPipelineOutput(), pipelineEnum)) {
-                    // Must output this frame
-                    main.addPipelineOutputFrame(mat);
-                    //System.out.println("Added pipeline output to pipeline output for " + pipelineEnum.getInstance().getName());
+        outputs.begin(working);
+        for (int i = 0; i < stageHistograms.length; i++) {
+            if (!isOwner(token)) {
+                if (working != mat) {
+                    working.release();
                 }
-            } catch (Exception e) {
-                System.out.println("Failed to run pipeline " + pipelineEnum.getInstance().getName());
-                System.out.println("Continuing anyways..");
-                e.printStackTrace();
+                return false;
+            }
+            processStage(i, outputs, context);
+        }
+
+        // The frame Mat is owned and reused by the VisionThread, so it is not released here
+
+        finishFrame(mat, working, context, startTime);
+        return true;
+    }
+
+    /**
+     * Makes the caller the only runner whose frames are processed, every earlier token stops being accepted
+     * @return the token to pass to {@link #process(Mat, long, long)} or check with {@link #isOwner(long)}
+     */
+    public long claim() {
+        return owner.incrementAndGet();
+    }
+
+    public boolean isOwner(long token) {
+        return owner.get() == token;
+    }
+
+    /**
+     * Picks the region of the frame to process, either the contour tracking window or the full frame
+     * @return the Mat that stages should process
+     */
+    public Mat beginFrame(Mat frame, Pipeline.Context context) {
+        // Pin one version of the settings for the whole frame
+        context.settings = SettingsSnapshot.current();
+        context.width = frame.width();
+        context.height = frame.height();
+        context.roi = null;
+        context.empty = false;
+        context.pyramidScale = 1;
+        context.coarseTimeNanos = 0;
+        FrameRecorder frameRecorder = this.frameRecorder;
+        if (frameRecorder != null) {
+            // Record the raw frame before any stage changes it
+            frameRecorder.record(frame, context.captureTime != 0 ? context.captureTime : NetworkTablesJNI.now());
+        }
+        if (main != null && main.isPsEyeOutput()) {
+            // Keep the debug output showing the full frame
+            return frame;
+        }
+        if (!graph.supportsRegionOfInterest()) {
+            return frame;
+        }
+        ContourPipeline contourPipeline = (ContourPipeline) Pipelines.CONTOUR.getInstance();
+        Rect window = contourPipeline.getTrackingWindow(context);
+        int pyramidScale = contourPipeline.getPyramidScale(context);
+        context.pyramidScale = pyramidScale;
+        if (window == null && pyramidScale > 1) {
+            // Coarse level, find candidate regions on a downscaled copy
+            long coarseStartTime = System.nanoTime();
+            window = pyramidDetector.detect(frame, pyramidScale, contourPipeline.getAspectRatioMin(context),
+                    contourPipeline.getAspectRatioMax(context), context);
+            context.coarseTimeNanos = System.nanoTime() - coarseStartTime;
+            coarseHistogram.record(context.coarseTimeNanos);
+            if (window == null) {
+                context.empty = true;
+                return frame;
+            }
+        }
+        if (window == null || window.x + window.width > frame.width() || window.y + window.height > frame.height()) {
+            return frame;
+        }
+        context.roi = window;
+        return frame.submat(window);
+    }
+
+    /**
+     * Runs a single graph node on a frame, used directly by {@link StagedPipelineRunner} stage threads
+     * @param index node index in {@link PipelineGraph#getNodes()}
+     */
+    public void processStage(int index, PipelineGraph.Outputs outputs, Pipeline.Context context) {
+        Pipeline pipeline = graph.getNodes().get(index).getPipeline();
+        boolean skip = context.empty && !pipeline.runsOnEmptyFrames();
+        Mat mat = outputs.input(index, !skip);
+        if (skip) {
+            return;
+        }
+
+        // Remember pipeline start time
+        long pipelineStartTime = System.nanoTime();
+
+        // Run pipeline
+        try {
+            if (pipeline.process(mat, outputs.result(index), context)) {
+                mat = outputs.result(index);
+                outputs.setOutput(index, mat);
             }
 
-            // End of pipeline, do statistic
-            averagePipelinesMs.get(pipelineEnum).update((System.currentTimeMillis() - pipelineStartTime));
+            if (main != null && main.isPsEyeOutput() && main.getPipelineOutput() == pipeline) {
+                // Must output this frame
+                main.addPipelineOutputFrame(mat);
+            }
+        } catch (Exception e) {
+            System.out.println("Failed to run pipeline " + pipeline.getName());
+            System.out.println("Continuing anyways..");
+            e.printStackTrace();
         }
 
-        // Release Mat
-        mat.release();
+        // End of pipeline, do statistic
+        stageHistograms[index].record(System.nanoTime() - pipelineStartTime);
+    }
 
+    /**
+     * @param startTime {@link System#nanoTime()} when the frame started
+     */
+    public void finishFrame(Mat frame, Mat working, Pipeline.Context context, long startTime) {
+        if (working != frame) {
+            // Only the header of the tracking window (or its converted copy) belongs to this frame
+            working.release();
+        }
+        long frameNanos = System.nanoTime() - startTime;
+        if (context.pyramidScale > 1) {
+            // Fine level, everything after the coarse pass
+            fineHistogram.record(frameNanos - context.coarseTimeNanos);
+        }
+        lastPyramidScale = context.pyramidScale;
         // End, do statistics
-        averageFrameMs.update((System.currentTimeMillis() - startTime));
+        lastFrameNanos = startTime + frameNanos;
+        frameHistogram.record(frameNanos);
+        if (main != null && context.captureTime != 0) {
+            // Capture timestamps are only on the same clock as ours when running live
+            long captureLatencyNanos = (NetworkTablesJNI.now() - context.captureTime) * 1000;
+            captureLatencyHistogram.record(captureLatencyNanos);
+            for (int i = 0; i < captureLatencyObservers.size(); i++) {
+                captureLatencyObservers.get(i).record(captureLatencyNanos);
+            }
+        }
+    }
+
+    public void setFrameRecorder(FrameRecorder frameRecorder) {
+        this.frameRecorder = frameRecorder;
+    }
+
+    public void addCaptureLatencyObserver(LatencyHistogram histogram) {
+        captureLatencyObservers.add(histogram);
+    }
+
+    public void addStatisticsPublisher(Consumer<NetworkTable> publisher) {
+        statisticsPublishers.add(publisher);
+    }
+
+    public void removeStatisticsPublisher(Consumer<NetworkTable> publisher) {
+        statisticsPublishers.remove(publisher);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the last frame finished, 0 if none has
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    public PipelineGraph getGraph() {
+        return graph;
+    }
+
+    public LatencyHistogram getStageHistogram(int index) {
+        return stageHistograms[index];
+    }
+
+    public LatencyHistogram getFrameHistogram() {
+        return frameHistogram;
     }
 
     public void printStatistics() {
-        if ((System.currentTimeMillis() - lastStatisticsUpdate) <= UPDATE_STATISTICS_PERIOD_MS) {
+        long now = System.currentTimeMillis();
+        if ((now - lastStatisticsUpdate) <= UPDATE_STATISTICS_PERIOD_MS) {
             return;
         }
-        lastStatisticsUpdate = System.currentTimeMillis();
-        for (Map.Entry<Pipelines,RollingDoubleAverage> entry : averagePipelinesMs.entrySet()) {
-            String name = entry.getKey().toString();
-            statisticsTable.getEntry(name + "_time").setDouble(entry.getValue().getAverage());
+        long elapsedMs = now - lastStatisticsUpdate;
+        boolean firstUpdate = lastStatisticsUpdate == -1;
+        lastStatisticsUpdate = now;
+        for (int i = 0; i < stageHistograms.length; i++) {
+            stageHistograms[i].publish(statisticsTable, graph.getNodes().get(i).getPipeline().getName());
+        }
+        frameHistogram.publish(statisticsTable, "frame");
+        captureLatencyHistogram.publish(statisticsTable, "capture_latency");
+        statisticsTable.getEntry("settings_version").setDouble(SettingsSnapshot.current().getVersion());
+        if (!firstUpdate) {
+            // Frames actually completed, so dropped frames in the staged runner do not count
+            statisticsTable.getEntry("fps").setDouble(frameHistogram.getCount() * 1000d / elapsedMs);
+        }
+        int pyramidScale = lastPyramidScale;
+        if (pyramidScale > 1) {
+            statisticsTable.getEntry("pyramid_scale").setDouble(pyramidScale);
+            coarseHistogram.publish(statisticsTable, "pyramid_coarse");
+            fineHistogram.publish(statisticsTable, "pyramid_fine");
+        }
+        for (Consumer<NetworkTable> publisher : statisticsPublishers) {
+            publisher.accept(statisticsTable);
         }
-        double frameMs = averageFrameMs.getAverage();
-        statisticsTable.getEntry("frame_time").setDouble(frameMs);
-        statisticsTable.getEntry("fps").setDouble((1000d / frameMs));
     }
 }
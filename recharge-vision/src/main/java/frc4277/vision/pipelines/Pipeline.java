@@ -3,7 +3,9 @@ package frc4277.vision.pipelines;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.vision.VisionPipeline;
 import frc4277.vision.pipelines.setting.Setting;
+import frc4277.vision.pipelines.setting.SettingsSnapshot;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -31,6 +33,18 @@ public abstract class Pipeline implements VisionPipeline {
 
     public abstract void process(Mat mat, Context context);
 
+    /**
+     * For stages whose result has a different type than their input. Writing it to output instead of mat keeps the
+     * capture Mat's type, so the camera does not reallocate it every frame.
+     *
+     * @param output kept by the caller between frames
+     * @return true when the result is in output, false when mat was processed in place
+     */
+    public boolean process(Mat mat, Mat output, Context context) {
+        process(mat, context);
+        return false;
+    }
+
     @Override
     public void process(Mat mat) {
         process(mat, new Context(mat.width(), mat.height()));
@@ -40,9 +54,59 @@ public abstract class Pipeline implements VisionPipeline {
         return Collections.emptyList();
     }
 
+    /**
+     * @throws IllegalArgumentException when this pipeline has no setting with that key
+     */
+    public Setting<?> getSetting(String key) {
+        for (Setting<?> setting : getSettings()) {
+            if (setting.getKey().equals(key)) {
+                return setting;
+            }
+        }
+        throw new IllegalArgumentException(getName() + " has no setting " + key);
+    }
+
+    /**
+     * Makes this instance read every setting from another instance of the same stage, so a private instance with its
+     * own state is still tuned with the shared one
+     */
+    public void followSettings(Pipeline other) {
+        List<Setting<?>> settings = getSettings();
+        List<Setting<?>> otherSettings = other.getSettings();
+        if (other.getClass() != getClass() || settings.size() != otherSettings.size()) {
+            throw new IllegalArgumentException(getName() + " can not follow the settings of " + other.getName());
+        }
+        for (int i = 0; i < settings.size(); i++) {
+            settings.get(i).follow(otherSettings.get(i));
+        }
+    }
+
+    /**
+     * @return whether this pipeline still runs when {@link Context#empty} is set, e.g. to clear its results
+     */
+    public boolean runsOnEmptyFrames() {
+        return false;
+    }
+
     public static class Context {
+        // Size of the full camera frame, even when only a region is processed
         public int width;
         public int height;
+        // Region of the full frame the processed mat covers, null when it is the whole frame
+        public Rect roi;
+        // cscore capture time in microseconds, 0 when unknown
+        public long captureTime;
+        // When analysis finished and when the result was published, on the same clock as captureTime
+        public long processedTime;
+        public long publishTime;
+        // Set when coarse detection found no candidates, most pipelines skip the frame
+        public boolean empty;
+        // Pyramid scale the frame was started with, 1 when there was no coarse pass
+        public int pyramidScale = 1;
+        // Time spent on the coarse pyramid level before the stages ran
+        public long coarseTimeNanos;
+        // Settings pinned for this frame, so every stage sees the same values
+        public SettingsSnapshot settings = SettingsSnapshot.current();
 
         public Context(int width, int height) {
             this.width = width;
@@ -0,0 +1,360 @@
+package frc4277.vision.pipelines;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import edu.wpi.first.networktables.NetworkTable;
+import frc4277.vision.CameraIntrinsics;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Stages arranged as a tree rooted at the camera frame. Each branch is a chain of stages ending in a detector.
+ * Stages with the same input, type and settings are merged, so they run once and fan out to every branch using them.
+ * <p>
+ * Configuration is JSON, for example:
+ * <pre>
+ * {"branches": [
+ *   {"name": "port", "stages": [{"type": "BLUR"}, {"type": "HSV"}, {"type": "ERODE_DILATE"}, {"type": "CONTOUR"}]},
+ *   {"name": "cells", "stages": [{"type": "BLUR"}, {"type": "HSV", "settings": {"h_max": 40}}, {"type": "CONTOUR"}]}
+ * ]}
+ * </pre>
+ * Types are {@link Pipelines} names and settings override the stage's default values.
+ */
+public class PipelineGraph {
+    public static final String DEFAULT_BRANCH = "port";
+
+    // Topological order, every node comes after its input
+    private final List<Node> nodes;
+    private final List<String> branches;
+    private final boolean supportsRegionOfInterest;
+
+    private PipelineGraph(List<Node> nodes, List<String> branches) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.branches = Collections.unmodifiableList(branches);
+        boolean allSingletons = true;
+        boolean portDetector = false;
+        for (Node node : nodes) {
+            allSingletons &= isSingleton(node.pipeline);
+            portDetector |= node.pipeline == Pipelines.CONTOUR.getInstance();
+        }
+        this.supportsRegionOfInterest = branches.size() == 1 && allSingletons && portDetector;
+    }
+
+    // The original chain feeding the port detector
+    private static final Pipelines[] DEFAULT_STAGES = {
+            Pipelines.BLUR, Pipelines.HSV, Pipelines.ERODE_DILATE, Pipelines.CONTOUR
+    };
+
+    /**
+     * The original chain feeding the port detector
+     */
+    public static PipelineGraph defaultGraph() {
+        return defaultGraph(null);
+    }
+
+    /**
+     * @param instancePrefix when set, every stage is a new instance named with this prefix, e.g. for another camera
+     */
+    public static PipelineGraph defaultGraph(String instancePrefix) {
+        GraphConfig config = new GraphConfig();
+        BranchConfig branch = new BranchConfig();
+        branch.name = DEFAULT_BRANCH;
+        for (Pipelines pipeline : DEFAULT_STAGES) {
+            StageConfig stage = new StageConfig();
+            stage.type = pipeline.name();
+            branch.stages.add(stage);
+        }
+        config.branches.add(branch);
+        return build(config, instancePrefix);
+    }
+
+    public static PipelineGraph load(Path path) throws IOException {
+        return load(path, null);
+    }
+
+    /**
+     * @param instancePrefix when set, every stage is a new instance named with this prefix, e.g. for another camera
+     */
+    public static PipelineGraph load(Path path, String instancePrefix) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            GraphConfig config = new Gson().fromJson(reader, GraphConfig.class);
+            if (config == null) {
+                throw new IOException("Empty pipeline graph " + path);
+            }
+            return build(config, instancePrefix);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            throw new IOException("Invalid pipeline graph " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    static PipelineGraph build(GraphConfig config, String instancePrefix) {
+        if (config.branches == null || config.branches.isEmpty()) {
+            throw new IllegalArgumentException("No branches");
+        }
+        List<Node> nodes = new ArrayList<>();
+        List<String> branches = new ArrayList<>();
+        Map<String, Node> nodesByKey = new HashMap<>();
+        Set<Pipelines> singletonsUsed = EnumSet.noneOf(Pipelines.class);
+        Set<String> names = new HashSet<>();
+
+        for (BranchConfig branch : config.branches) {
+            if (branch.name == null || branches.contains(branch.name)) {
+                throw new IllegalArgumentException("Branch names must be set and unique, got " + branch.name);
+            }
+            if (branch.stages == null || branch.stages.isEmpty()) {
+                throw new IllegalArgumentException("Branch " + branch.name + " has no stages");
+            }
+            branches.add(branch.name);
+
+            Node input = null;
+            for (StageConfig stage : branch.stages) {
+                Pipelines type = Pipelines.valueOf(stage.type);
+                Map<String, Object> settings = stage.settings == null ? Collections.emptyMap() : new TreeMap<>(stage.settings);
+                String key = (input == null ? -1 : input.index) + ":" + type + ":" + settings;
+                Node node = nodesByKey.get(key);
+                if (node == null) {
+                    Pipeline pipeline;
+                    String baseName = instancePrefix == null ? type.getInstance().getName()
+                            : instancePrefix + "_" + type.getInstance().getName();
+                    if (instancePrefix == null && settings.isEmpty() && singletonsUsed.add(type)) {
+                        pipeline = type.getInstance();
+                    } else {
+                        String name = settings.isEmpty() && !names.contains(baseName) ? baseName
+                                : baseName + "_" + branch.name;
+                        for (int i = 2; names.contains(name); i++) {
+                            name = baseName + "_" + branch.name + i;
+                        }
+                        pipeline = type.newInstance(name);
+                        applySettings(pipeline, settings);
+                    }
+                    names.add(pipeline.getName());
+                    node = new Node(nodes.size(), pipeline, input);
+                    nodes.add(node);
+                    nodesByKey.put(key, node);
+                    if (input != null) {
+                        input.children.add(node);
+                    }
+                }
+                input = node;
+            }
+            input.branches.add(branch.name);
+        }
+
+        // Depth first order keeps each subtree together, so every fan out copy is taken before the last child
+        // changes the shared Mat in place
+        List<Node> ordered = new ArrayList<>();
+        List<Node> roots = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.input == null) {
+                roots.add(node);
+            }
+        }
+        addDepthFirst(roots, ordered);
+        for (int i = 0; i < ordered.size(); i++) {
+            ordered.get(i).index = i;
+        }
+        return new PipelineGraph(ordered, branches);
+    }
+
+    private static void addDepthFirst(List<Node> siblings, List<Node> ordered) {
+        for (int i = 0; i < siblings.size(); i++) {
+            Node node = siblings.get(i);
+            // Only the last sibling may work on the shared input in place
+            node.copiesInput = i < siblings.size() - 1;
+            ordered.add(node);
+            addDepthFirst(node.children, ordered);
+        }
+    }
+
+    private static void applySettings(Pipeline pipeline, Map<String, Object> settings) {
+        for (Map.Entry<String, Object> entry : settings.entrySet()) {
+            pipeline.getSetting(entry.getKey()).setDefaultValue(entry.getValue());
+        }
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public List<String> getBranches() {
+        return branches;
+    }
+
+    /**
+     * Tracking windows and the coarse pyramid pass come from the default port detector and crop the frame for every
+     * stage, so they are only used when the graph is a single chain ending in that detector
+     */
+    public boolean supportsRegionOfInterest() {
+        return supportsRegionOfInterest;
+    }
+
+    private static boolean isSingleton(Pipeline pipeline) {
+        for (Pipelines type : Pipelines.values()) {
+            if (type.getInstance() == pipeline) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Points every branch's detector at its own subtable of the results table
+     */
+    public void attachResults(NetworkTable resultsTable) {
+        for (Node node : nodes) {
+            for (String branch : node.branches) {
+                if (node.pipeline instanceof ContourPipeline) {
+                    ((ContourPipeline) node.pipeline).addResultsTable(resultsTable.getSubTable(branch));
+                } else if (node.pipeline instanceof BallPipeline) {
+                    ((BallPipeline) node.pipeline).addResultsTable(resultsTable.getSubTable(branch));
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every detector the calibrated intrinsics of the camera feeding this graph
+     */
+    public void setIntrinsics(CameraIntrinsics intrinsics) {
+        for (Node node : nodes) {
+            if (node.pipeline instanceof ContourPipeline) {
+                ((ContourPipeline) node.pipeline).setIntrinsics(intrinsics);
+            } else if (node.pipeline instanceof BallPipeline) {
+                ((BallPipeline) node.pipeline).setIntrinsics(intrinsics);
+            }
+        }
+    }
+
+    public static class Node {
+        private int index;
+        private final Pipeline pipeline;
+        private final Node input;
+        private final List<Node> children = new ArrayList<>();
+        // Branches whose detector this node is
+        private final List<String> branches = new ArrayList<>();
+        private boolean copiesInput;
+
+        private Node(int index, Pipeline pipeline, Node input) {
+            this.index = index;
+            this.pipeline = pipeline;
+            this.input = input;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Pipeline getPipeline() {
+            return pipeline;
+        }
+
+        public List<String> getBranches() {
+            return branches;
+        }
+
+        @Override
+        public String toString() {
+            return pipeline.getName();
+        }
+    }
+
+    /**
+     * One frame's output of every node. A node shares its input's Mat unless a later sibling still needs it,
+     * then it works on its own copy. Copies are reused between frames.
+     */
+    public static class Outputs {
+        private final PipelineGraph graph;
+        private final Mat[] outputs;
+        private final Mat[] copies;
+        // Written by stages that do not work in place, see Pipeline#process(Mat, Mat, Context)
+        private final Mat[] results;
+        private Mat frame;
+
+        public Outputs(PipelineGraph graph) {
+            this.graph = graph;
+            this.outputs = new Mat[graph.nodes.size()];
+            this.copies = new Mat[graph.nodes.size()];
+            this.results = new Mat[graph.nodes.size()];
+        }
+
+        /**
+         * @param frame the Mat the root stages process
+         */
+        public void begin(Mat frame) {
+            this.frame = frame;
+            Arrays.fill(outputs, null);
+        }
+
+        /**
+         * @param copy false when the node is skipped and leaves its input alone
+         * @return the Mat the node should process in place
+         */
+        Mat input(int index, boolean copy) {
+            Node node = graph.nodes.get(index);
+            Mat input = node.input == null ? frame : outputs[node.input.index];
+            Mat output = input;
+            if (copy && node.copiesInput) {
+                if (copies[index] == null) {
+                    copies[index] = new Mat();
+                }
+                input.copyTo(copies[index]);
+                output = copies[index];
+            }
+            outputs[index] = output;
+            return output;
+        }
+
+        Mat result(int index) {
+            if (results[index] == null) {
+                results[index] = new Mat();
+            }
+            return results[index];
+        }
+
+        void setOutput(int index, Mat output) {
+            outputs[index] = output;
+        }
+
+        public void release() {
+            for (Mat copy : copies) {
+                if (copy != null) {
+                    copy.release();
+                }
+            }
+            for (Mat result : results) {
+                if (result != null) {
+                    result.release();
+                }
+            }
+        }
+    }
+
+    // Gson configuration classes
+    static class GraphConfig {
+        List<BranchConfig> branches = new ArrayList<>();
+    }
+
+    static class BranchConfig {
+        String name;
+        List<StageConfig> stages = new ArrayList<>();
+    }
+
+    static class StageConfig {
+        String type;
+        Map<String, Object> settings;
+    }
+}
@@ -0,0 +1,14 @@
+package frc4277.vision.pipelines;
+
+/**
+ * Feeds camera frames through a {@link MainPipeline} on threads of its own
+ */
+public interface PipelineRunner {
+    void start();
+
+    /**
+     * Stops and interrupts the runner's threads. A thread stuck in native code is left behind, it exits once it
+     * returns. A stopped runner is not started again, create a new one instead.
+     */
+    void stop();
+}
@@ -1,26 +1,42 @@
 package frc4277.vision.pipelines;
 
+import java.util.function.Function;
+
 public enum Pipelines {
-    BLUR(BlurPipeline.class, new BlurPipeline()),
-    HSV(HSVPipeline.class, new HSVPipeline()),
-    ERODE_DILATE(ErodeDilatePipeline.class, new ErodeDilatePipeline()),
-    CONTOUR(ContourPipeline.class, new ContourPipeline());
+    BLUR(BlurPipeline.class, new BlurPipeline(), BlurPipeline::new),
+    HSV(HSVPipeline.class, new HSVPipeline(), HSVPipeline::new),
+    ERODE_DILATE(ErodeDilatePipeline.class, new ErodeDilatePipeline(), ErodeDilatePipeline::new),
+    CONTOUR(ContourPipeline.class, new ContourPipeline(), ContourPipeline::new),
+    // Power cell detector, only used by graphs that ask for it
+    BALL(BallPipeline.class, new BallPipeline(), BallPipeline::new);
 
     private Class<? extends Pipeline> pipelineClass;
     private Pipeline instance;
-    Pipelines(Class<? extends Pipeline> pipelineClass, Pipeline instance) {
+    private Function<String, Pipeline> factory;
+    Pipelines(Class<? extends Pipeline> pipelineClass, Pipeline instance, Function<String, Pipeline> factory) {
         this.pipelineClass = pipelineClass;
         this.instance = instance;
+        this.factory = factory;
     }
 
     public Class<? extends Pipeline> getPipelineClass() {
         return pipelineClass;
     }
 
+    /**
+     * The instance used by the default {@link PipelineGraph}
+     */
     public Pipeline getInstance() {
         return instance;
     }
 
+    /**
+     * Another instance with its own settings, for graph branches that need different parameters
+     */
+    public Pipeline newInstance(String name) {
+        return factory.apply(name);
+    }
+
 
     @Override
     public String toString() {
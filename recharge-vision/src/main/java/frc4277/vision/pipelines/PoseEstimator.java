@@ -0,0 +1,159 @@
+package frc4277.vision.pipelines;
+
+import frc4277.vision.CameraIntrinsics;
+import frc4277.vision.Constants;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Solves the power port's pose from its four target corners. The camera matrix and every Mat are kept between frames,
+ * and the last frame's pose seeds the iterative solver.
+ * <p>
+ * Lens distortion is removed from the four corners only, never from the whole frame. The corners passed to
+ * {@link #solve} must already be undistorted, see {@link #undistort}.
+ * <p>
+ * The target frame has x to the right, y down and z into the wall, with its origin at the middle of the target.
+ * The camera frame has x to the right, y down and z out of the lens.
+ */
+public class PoseEstimator {
+    private static final double TOP_HALF_WIDTH = Constants.POWER_PORT_TOP_WIDTH_M / 2;
+    private static final double BOTTOM_HALF_WIDTH = Constants.POWER_PORT_BOTTOM_WIDTH_M / 2;
+    private static final double HALF_HEIGHT = Constants.POWER_PORT_HEIGHT_M / 2;
+
+    private final MatOfPoint3f objectPoints = new MatOfPoint3f();
+    private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+    private final MatOfPoint2f undistortedPoints = new MatOfPoint2f();
+    private final Mat cameraMatrix = new Mat(3, 3, CvType.CV_64FC1);
+    private final MatOfDouble distortion = new MatOfDouble();
+    // Corners are undistorted before solving
+    private final MatOfDouble noDistortion = new MatOfDouble(0, 0, 0, 0, 0);
+    private final Mat noRectification = new Mat();
+    private final Mat rvec = new Mat();
+    private final Mat tvec = new Mat();
+    private final Mat rotation = new Mat();
+    private final float[] imageBuffer = new float[8];
+    private final double[] cameraBuffer = new double[9];
+    private final double[] translation = new double[3];
+    private final double[] rotationBuffer = new double[9];
+    private volatile CameraIntrinsics intrinsics;
+    // Intrinsics the camera matrix was built from, and their scaled version for the current frame size
+    private CameraIntrinsics sourceIntrinsics;
+    private CameraIntrinsics scaledIntrinsics;
+    private boolean hasGuess = false;
+
+    public PoseEstimator(CameraIntrinsics intrinsics) {
+        this.intrinsics = intrinsics;
+        // Same order as the corner buffers: top left, top right, bottom left, bottom right
+        objectPoints.create(4, 1, CvType.CV_32FC3);
+        objectPoints.put(0, 0,
+                -TOP_HALF_WIDTH, -HALF_HEIGHT, 0,
+                TOP_HALF_WIDTH, -HALF_HEIGHT, 0,
+                -BOTTOM_HALF_WIDTH, HALF_HEIGHT, 0,
+                BOTTOM_HALF_WIDTH, HALF_HEIGHT, 0);
+        imagePoints.create(4, 1, CvType.CV_32FC2);
+    }
+
+    public void setIntrinsics(CameraIntrinsics intrinsics) {
+        this.intrinsics = intrinsics;
+    }
+
+    /**
+     * Removes lens distortion from the four corners, the result is still in pixels of an ideal pinhole camera
+     *
+     * @param corners x/y pairs in full frame pixels
+     * @param undistorted receives the corrected x/y pairs, may be corners itself
+     */
+    public void undistort(double[] corners, double[] undistorted, int frameWidth, int frameHeight) {
+        updateCameraMatrix(frameWidth, frameHeight);
+        putCorners(corners);
+        Imgproc.undistortPoints(imagePoints, undistortedPoints, cameraMatrix, distortion, noRectification, cameraMatrix);
+        undistortedPoints.get(0, 0, imageBuffer);
+        for (int i = 0; i < 8; i++) {
+            undistorted[i] = imageBuffer[i];
+        }
+    }
+
+    /**
+     * Sets the target's angles from the center of undistorted corners, using the focal length instead of the FOV
+     * constants
+     */
+    public void setAngles(double[] undistortedCorners, int frameWidth, int frameHeight,
+                          ContourPipeline.PotentialSmartTarget target) {
+        updateCameraMatrix(frameWidth, frameHeight);
+        // Same center as the target corners, the middle of top left and bottom right
+        double x = (undistortedCorners[0] + undistortedCorners[6]) / 2;
+        double y = (undistortedCorners[1] + undistortedCorners[7]) / 2;
+        target.degreesHorizontal = Math.toDegrees(Math.atan((x - scaledIntrinsics.cx) / scaledIntrinsics.fx));
+        target.degreesVertical = Math.toDegrees(Math.atan((y - scaledIntrinsics.cy) / scaledIntrinsics.fy));
+    }
+
+    /**
+     * @param corners undistorted x/y pairs of the top left, top right, bottom left and bottom right corners in full
+     *                frame pixels
+     * @return false when there is no solution, the target's pose is left unchanged
+     */
+    public boolean solve(double[] corners, int frameWidth, int frameHeight, ContourPipeline.PotentialSmartTarget target) {
+        updateCameraMatrix(frameWidth, frameHeight);
+        putCorners(corners);
+        if (!Calib3d.solvePnP(objectPoints, imagePoints, cameraMatrix, noDistortion, rvec, tvec, hasGuess,
+                Calib3d.SOLVEPNP_ITERATIVE)) {
+            hasGuess = false;
+            return false;
+        }
+        tvec.get(0, 0, translation);
+        if (translation[2] <= 0) {
+            // Behind the camera, a mirrored solution
+            hasGuess = false;
+            return false;
+        }
+        hasGuess = true;
+        Calib3d.Rodrigues(rvec, rotation);
+        rotation.get(0, 0, rotationBuffer);
+
+        double x = translation[0];
+        double y = translation[1];
+        double z = translation[2];
+        target.range = Math.sqrt(x * x + y * y + z * z);
+        target.bearing = Math.atan2(x, z);
+        // Yaw of the target's z axis in the camera frame, 0 when the wall faces the camera squarely
+        target.skew = Math.atan2(rotationBuffer[2], rotationBuffer[8]);
+        return true;
+    }
+
+    /**
+     * Forgets the last pose, call when the target was lost so the next solve starts fresh
+     */
+    public void reset() {
+        hasGuess = false;
+    }
+
+    private void putCorners(double[] corners) {
+        for (int i = 0; i < 8; i++) {
+            imageBuffer[i] = (float) corners[i];
+        }
+        imagePoints.put(0, 0, imageBuffer);
+    }
+
+    private void updateCameraMatrix(int frameWidth, int frameHeight) {
+        CameraIntrinsics intrinsics = this.intrinsics;
+        if (intrinsics == sourceIntrinsics && scaledIntrinsics.width == frameWidth
+                && scaledIntrinsics.height == frameHeight) {
+            return;
+        }
+        scaledIntrinsics = intrinsics.scaledTo(frameWidth, frameHeight);
+        cameraBuffer[0] = scaledIntrinsics.fx;
+        cameraBuffer[2] = scaledIntrinsics.cx;
+        cameraBuffer[4] = scaledIntrinsics.fy;
+        cameraBuffer[5] = scaledIntrinsics.cy;
+        cameraBuffer[8] = 1;
+        cameraMatrix.put(0, 0, cameraBuffer);
+        distortion.fromArray(scaledIntrinsics.distortion);
+        sourceIntrinsics = intrinsics;
+        hasGuess = false;
+    }
+}
@@ -0,0 +1,93 @@
+package frc4277.vision.pipelines;
+
+import frc4277.vision.util.MatPool;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coarse pass of coarse-to-fine detection: runs blur, HSV and a cheap contour filter on a downscaled copy of the
+ * frame and returns the full resolution region that the fine pass should process.
+ */
+class PyramidDetector {
+    // Coarse pixels added around candidates to cover blur and morphology spread at full resolution
+    private static final int CANDIDATE_PADDING = 2;
+    // Coarse contours smaller than this in either direction are treated as noise
+    private static final int MIN_CANDIDATE_SIZE = 2;
+
+    // Own instances, the shared ones may be running on stage threads at the same time
+    private final Pipeline blurPipeline;
+    private final Pipeline hsvPipeline;
+    private final Pipeline.Context coarseContext = new Pipeline.Context(0, 0);
+    private final Size coarseSize = new Size();
+    private final List<MatOfPoint> coarseContours = new ArrayList<>();
+
+    PyramidDetector() {
+        this.blurPipeline = Pipelines.BLUR.newInstance("Blur_coarse");
+        this.hsvPipeline = Pipelines.HSV.newInstance("HSV_coarse");
+        blurPipeline.followSettings(Pipelines.BLUR.getInstance());
+        hsvPipeline.followSettings(Pipelines.HSV.getInstance());
+    }
+
+    /**
+     * @param aspectRatioMin the contour filter's bounds, candidates outside them are dropped
+     * @return the union of all candidate regions in full resolution coordinates, or null if there are no candidates
+     */
+    Rect detect(Mat frame, int scale, double aspectRatioMin, double aspectRatioMax, Pipeline.Context context) {
+        MatPool matPool = MatPool.get();
+        Mat coarse = matPool.borrow();
+        Mat hierarchy = matPool.borrow();
+        try {
+            coarseSize.width = frame.width() / scale;
+            coarseSize.height = frame.height() / scale;
+            Imgproc.resize(frame, coarse, coarseSize, 0, 0, Imgproc.INTER_AREA);
+            coarseContext.width = coarse.width();
+            coarseContext.height = coarse.height();
+            coarseContext.roi = null;
+            coarseContext.settings = context.settings;
+
+            blurPipeline.process(coarse, coarseContext);
+            hsvPipeline.process(coarse, coarseContext);
+
+            for (int i = 0; i < coarseContours.size(); i++) {
+                coarseContours.get(i).release();
+            }
+            coarseContours.clear();
+            Imgproc.findContours(coarse, coarseContours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+            int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+            for (int i = 0; i < coarseContours.size(); i++) {
+                Rect bounds = Imgproc.boundingRect(coarseContours.get(i));
+                if (bounds.width < MIN_CANDIDATE_SIZE || bounds.height < MIN_CANDIDATE_SIZE) {
+                    continue;
+                }
+                double aspectRatio = (double) bounds.width / bounds.height;
+                if (aspectRatio < aspectRatioMin || aspectRatio > aspectRatioMax) {
+                    continue;
+                }
+                x1 = Math.min(x1, bounds.x);
+                y1 = Math.min(y1, bounds.y);
+                x2 = Math.max(x2, bounds.x + bounds.width);
+                y2 = Math.max(y2, bounds.y + bounds.height);
+            }
+            if (x1 == Integer.MAX_VALUE) {
+                return null;
+            }
+
+            // Scale back up to full resolution
+            x1 = Math.max(0, (x1 - CANDIDATE_PADDING) * scale);
+            y1 = Math.max(0, (y1 - CANDIDATE_PADDING) * scale);
+            x2 = Math.min(frame.width(), (x2 + CANDIDATE_PADDING) * scale);
+            y2 = Math.min(frame.height(), (y2 + CANDIDATE_PADDING) * scale);
+            return new Rect(x1, y1, x2 - x1, y2 - y1);
+        } finally {
+            matPool.giveBack(coarse);
+            matPool.giveBack(hierarchy);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import org.opencv.core.Mat;
+
+/**
+ * Runs the whole {@link MainPipeline} on one thread, like VisionThread, but keeps each frame's capture timestamp
+ */
+public class SerialPipelineRunner implements PipelineRunner {
+    private final VideoSource source;
+    private final MainPipeline mainPipeline;
+    private volatile boolean running = false;
+    private Thread thread;
+    private long token;
+
+    public SerialPipelineRunner(VideoSource source, MainPipeline mainPipeline) {
+        this.source = source;
+        this.mainPipeline = mainPipeline;
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        token = mainPipeline.claim();
+        thread = new Thread(this::run, "vision-Serial");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        CvSink sink = new CvSink("SerialPipelineRunner_" + source.getName());
+        sink.setSource(source);
+        Mat frame = new Mat();
+        try {
+            while (running && !Thread.interrupted()) {
+                long frameTime = sink.grabFrame(frame);
+                if (frameTime == 0) {
+                    System.out.println("Serial capture error: " + sink.getError());
+                    continue;
+                }
+                if (!mainPipeline.process(frame, frameTime, token)) {
+                    // Replaced by a new runner while stalled
+                    return;
+                }
+                mainPipeline.printStatistics();
+            }
+        } finally {
+            frame.release();
+            sink.close();
+        }
+    }
+}
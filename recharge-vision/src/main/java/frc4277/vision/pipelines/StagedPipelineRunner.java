@@ -0,0 +1,211 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTable;
+import frc4277.vision.util.DroppingRingBuffer;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Runs every node of the {@link PipelineGraph} on its own thread so capture, thresholding and contour analysis overlap.
+ * Nodes run in the graph's order, so branches are pipelined one after another.
+ * Stages are linked by {@link DroppingRingBuffer}s, so a slow stage drops the oldest frames instead of building lag.
+ */
+public class StagedPipelineRunner implements PipelineRunner {
+    private static final int QUEUE_CAPACITY = 2;
+
+    private final VideoSource source;
+    private final MainPipeline mainPipeline;
+    private final List<PipelineGraph.Node> stages;
+    private final List<DroppingRingBuffer<Frame>> queues = new ArrayList<>();
+    private final BlockingQueue<Frame> freeFrames;
+    private final Consumer<NetworkTable> statisticsPublisher = this::publishStatistics;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = false;
+    private long token;
+    // Set once stopped, frames are released instead of going back to the queues. Guarded by this
+    private boolean closed = false;
+
+    public StagedPipelineRunner(VideoSource source, MainPipeline mainPipeline) {
+        this.source = source;
+        this.mainPipeline = mainPipeline;
+        this.stages = mainPipeline.getGraph().getNodes();
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new DroppingRingBuffer<>(QUEUE_CAPACITY));
+        }
+
+        // Enough frames for every queue to be full, every stage to hold one, and capture to hold one
+        int frameCount = stages.size() * (QUEUE_CAPACITY + 1) + 1;
+        this.freeFrames = new ArrayBlockingQueue<>(frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            freeFrames.add(new Frame(mainPipeline.getGraph()));
+        }
+
+        mainPipeline.addStatisticsPublisher(statisticsPublisher);
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        token = mainPipeline.claim();
+        for (int i = 0; i < stages.size(); i++) {
+            Thread stageThread = new Thread(new StageRunnable(i), "vision-" + stages.get(i));
+            stageThread.setDaemon(true);
+            threads.add(stageThread);
+        }
+        Thread captureThread = new Thread(this::runCapture, "vision-Capture");
+        captureThread.setDaemon(true);
+        threads.add(captureThread);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Frames that are queued or free are released now, a frame held by a stuck thread once that thread returns
+     */
+    @Override
+    public void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        mainPipeline.removeStatisticsPublisher(statisticsPublisher);
+        synchronized (this) {
+            closed = true;
+            for (Frame frame = freeFrames.poll(); frame != null; frame = freeFrames.poll()) {
+                frame.release();
+            }
+            for (DroppingRingBuffer<Frame> queue : queues) {
+                for (Frame frame = queue.poll(); frame != null; frame = queue.poll()) {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    private void runCapture() {
+        CvSink sink = new CvSink("StagedPipelineRunner_" + source.getName());
+        sink.setSource(source);
+        try {
+            while (running && !Thread.interrupted()) {
+                Frame frame = freeFrames.take();
+                long frameTime = sink.grabFrame(frame.mat);
+                if (frameTime == 0) {
+                    System.out.println("Staged capture error: " + sink.getError());
+                    freeFrames.add(frame);
+                    continue;
+                }
+                if (!mainPipeline.isOwner(token)) {
+                    // Replaced by a new runner while stalled
+                    recycle(frame);
+                    return;
+                }
+                frame.startTime = System.nanoTime();
+                frame.context.captureTime = frameTime;
+                frame.working = mainPipeline.beginFrame(frame.mat, frame.context);
+                frame.outputs.begin(frame.working);
+                forward(0, frame);
+            }
+        } catch (InterruptedException ignored) {
+            // Shutting down
+        } finally {
+            sink.close();
+        }
+    }
+
+    private synchronized void forward(int index, Frame frame) {
+        if (closed) {
+            frame.release();
+            return;
+        }
+        recycle(queues.get(index).offer(frame));
+    }
+
+    private synchronized void recycle(Frame frame) {
+        if (frame != null) {
+            if (frame.working != frame.mat) {
+                frame.working.release();
+            }
+            frame.working = frame.mat;
+            if (closed) {
+                frame.release();
+            } else {
+                freeFrames.add(frame);
+            }
+        }
+    }
+
+    public void publishStatistics(NetworkTable statisticsTable) {
+        for (int i = 0; i < stages.size(); i++) {
+            String name = stages.get(i).toString();
+            statisticsTable.getEntry(name + "_queue_depth").setDouble(queues.get(i).size());
+            statisticsTable.getEntry(name + "_drops").setDouble(queues.get(i).getDropCount());
+        }
+        statisticsTable.getEntry("free_frames").setDouble(freeFrames.size());
+    }
+
+    private class StageRunnable implements Runnable {
+        private final int index;
+
+        private StageRunnable(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            boolean lastStage = index == stages.size() - 1;
+            try {
+                while (running && !Thread.interrupted()) {
+                    Frame frame = queues.get(index).take();
+                    if (!mainPipeline.isOwner(token)) {
+                        // Replaced by a new runner while stalled
+                        recycle(frame);
+                        return;
+                    }
+                    mainPipeline.processStage(index, frame.outputs, frame.context);
+                    if (!lastStage) {
+                        forward(index + 1, frame);
+                        continue;
+                    }
+                    if (mainPipeline.isOwner(token)) {
+                        mainPipeline.finishFrame(frame.mat, frame.working, frame.context, frame.startTime);
+                        mainPipeline.printStatistics();
+                    }
+                    recycle(frame);
+                }
+            } catch (InterruptedException ignored) {
+                // Shutting down
+            }
+        }
+    }
+
+    private static class Frame {
+        private final Mat mat = new Mat();
+        private final Pipeline.Context context = new Pipeline.Context(0, 0);
+        private final PipelineGraph.Outputs outputs;
+        private Mat working = mat;
+        private long startTime;
+
+        private Frame(PipelineGraph graph) {
+            this.outputs = new PipelineGraph.Outputs(graph);
+        }
+
+        private void release() {
+            if (working != mat) {
+                working.release();
+            }
+            mat.release();
+            outputs.release();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package frc4277.vision.pipelines;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Publishes every frame's target as one double array, so readers never see fields from two different frames.
+ * The record is written every frame, with valid = 0 when there is no target, and flushed right away.
+ * All times are Pi microseconds, the robot converts them with its clock offset estimate.
+ * <p>
+ * The Kalman filtered target is published alongside as a second record, with each quantity's [value, rate] estimate
+ * and its covariance.
+ */
+public class TargetResultPublisher {
+    public static final String ENTRY_NAME = "target";
+
+    // Record layout, keep in sync with the robot side reader
+    public static final int SEQUENCE = 0;
+    public static final int CAPTURE_TIME = 1;
+    public static final int VALID = 2;
+    public static final int X = 3;
+    public static final int Y = 4;
+    public static final int DEG_X = 5;
+    public static final int DEG_Y = 6;
+    public static final int MIN_RECT_AREA = 7;
+    public static final int PROCESSED_TIME = 8;
+    public static final int PUBLISH_TIME = 9;
+    // Pose from the target corners, range in metres, bearing and skew in radians
+    public static final int POSE_VALID = 10;
+    public static final int RANGE = 11;
+    public static final int BEARING = 12;
+    public static final int SKEW = 13;
+    public static final int LENGTH = 14;
+
+    public static final String TRACK_ENTRY_NAME = "track";
+
+    // Track record layout, rates are per second
+    public static final int TRACK_SEQUENCE = 0;
+    public static final int TRACK_CAPTURE_TIME = 1;
+    // TargetTracker.STATE_*, whether this frame was measured or predicted
+    public static final int TRACK_STATE = 2;
+    public static final int TRACK_LAST_MEASURED_TIME = 3;
+    // Each quantity takes FILTER_LENGTH values from its offset: value, rate, value variance, covariance, rate variance
+    public static final int TRACK_DEG_X = 4;
+    public static final int TRACK_DEG_Y = 9;
+    public static final int TRACK_AREA = 14;
+    public static final int TRACK_LENGTH = 19;
+    public static final int FILTER_LENGTH = 5;
+
+    private final NetworkTableInstance instance;
+    private final NetworkTableEntry entry;
+    private final NetworkTableEntry trackEntry;
+    private final double[] record = new double[LENGTH];
+    private final double[] trackRecord = new double[TRACK_LENGTH];
+    private long sequence = 0;
+
+    public TargetResultPublisher(NetworkTable resultsTable) {
+        this.instance = resultsTable.getInstance();
+        this.entry = resultsTable.getEntry(ENTRY_NAME);
+        this.trackEntry = resultsTable.getEntry(TRACK_ENTRY_NAME);
+    }
+
+    /**
+     * @param target null when no target was found
+     * @param tracker already updated with this frame's target
+     */
+    public void publish(Pipeline.Context context, ContourPipeline.PotentialSmartTarget target, TargetTracker tracker) {
+        record[SEQUENCE] = ++sequence;
+        record[CAPTURE_TIME] = context.captureTime;
+        if (target == null) {
+            record[VALID] = 0;
+            record[X] = 0;
+            record[Y] = 0;
+            record[DEG_X] = 0;
+            record[DEG_Y] = 0;
+            record[MIN_RECT_AREA] = 0;
+            record[POSE_VALID] = 0;
+        } else {
+            record[VALID] = 1;
+            record[X] = target.center.x;
+            record[Y] = target.center.y;
+            record[DEG_X] = target.degreesHorizontal;
+            record[DEG_Y] = target.degreesVertical;
+            record[MIN_RECT_AREA] = target.minRectArea;
+            record[POSE_VALID] = target.poseValid ? 1 : 0;
+        }
+        if (record[POSE_VALID] == 0) {
+            record[RANGE] = 0;
+            record[BEARING] = 0;
+            record[SKEW] = 0;
+        } else {
+            record[RANGE] = target.range;
+            record[BEARING] = target.bearing;
+            record[SKEW] = target.skew;
+        }
+        context.publishTime = NetworkTablesJNI.now();
+        record[PROCESSED_TIME] = context.processedTime;
+        record[PUBLISH_TIME] = context.publishTime;
+        entry.setDoubleArray(record);
+
+        trackRecord[TRACK_SEQUENCE] = sequence;
+        trackRecord[TRACK_CAPTURE_TIME] = context.captureTime;
+        trackRecord[TRACK_STATE] = tracker.getState();
+        trackRecord[TRACK_LAST_MEASURED_TIME] = tracker.getLastMeasuredTime();
+        setFilter(TRACK_DEG_X, tracker.getDegreesX());
+        setFilter(TRACK_DEG_Y, tracker.getDegreesY());
+        setFilter(TRACK_AREA, tracker.getArea());
+        trackEntry.setDoubleArray(trackRecord);
+        // Send now instead of waiting for the next periodic update
+        instance.flush();
+    }
+
+    private void setFilter(int offset, TargetTracker.ConstantVelocityFilter filter) {
+        trackRecord[offset] = filter.getValue();
+        trackRecord[offset + 1] = filter.getRate();
+        trackRecord[offset + 2] = filter.getValueVariance();
+        trackRecord[offset + 3] = filter.getCovariance();
+        trackRecord[offset + 4] = filter.getRateVariance();
+    }
+}
@@ -0,0 +1,190 @@
+package frc4277.vision.pipelines;
+
+import frc4277.vision.Constants;
+
+/**
+ * Smooths a detector's target across frames with constant velocity Kalman filters on the horizontal angle, vertical
+ * angle and area. Frames without a target are predicted through for a short time before the track is dropped, and a
+ * measurement too far from the prediction starts a new track, since it is most likely a different target.
+ * <p>
+ * Each quantity is filtered on its own with state [value, rate] and white acceleration process noise.
+ */
+public class TargetTracker {
+    public static final int STATE_NONE = 0;
+    public static final int STATE_MEASURED = 1;
+    public static final int STATE_PREDICTED = 2;
+
+    // Measurement noise is about a pixel of the target center
+    private static final double ANGLE_MEASUREMENT_STD = Constants.PSEYE_HORIZONTAL_FOV / Constants.PSEYE_WIDTH;
+    // Acceleration spectral density, deg^2/s^3, covers the robot turning in place
+    private static final double ANGLE_PROCESS_NOISE = 400;
+    private static final double ANGLE_RATE_INITIAL_STD = 60;
+    // Area noise and acceleration scale with the area itself
+    private static final double AREA_MEASUREMENT_FRACTION = 0.05;
+    private static final double AREA_PROCESS_FRACTION = 0.5;
+    private static final double AREA_RATE_INITIAL_FRACTION = 1;
+    // Used when capture times are missing or out of order
+    private static final double DEFAULT_DT = 1.0 / Constants.PSEYE_DEFAULT_FPS;
+
+    private final ConstantVelocityFilter degreesX = new ConstantVelocityFilter();
+    private final ConstantVelocityFilter degreesY = new ConstantVelocityFilter();
+    private final ConstantVelocityFilter area = new ConstantVelocityFilter();
+    private int state = STATE_NONE;
+    private long lastMeasuredTime;
+    private long lastTime;
+    private volatile long resets = 0;
+
+    /**
+     * @param time capture time, microseconds
+     * @param target null when the frame had no target
+     * @param maxCoastMicros how long to predict without a measurement before dropping the track
+     * @param gateSigma innovations beyond this many standard deviations start a new track
+     */
+    public void update(long time, ContourPipeline.PotentialSmartTarget target, long maxCoastMicros, double gateSigma) {
+        if (state != STATE_NONE) {
+            double dt = time > lastTime ? (time - lastTime) / 1e6 : DEFAULT_DT;
+            degreesX.predict(dt, ANGLE_PROCESS_NOISE);
+            degreesY.predict(dt, ANGLE_PROCESS_NOISE);
+            double areaScale = Math.max(area.value, 1);
+            area.predict(dt, sq(AREA_PROCESS_FRACTION * areaScale));
+        }
+        lastTime = time;
+
+        if (target == null) {
+            if (state != STATE_NONE && time - lastMeasuredTime > maxCoastMicros) {
+                state = STATE_NONE;
+            } else if (state != STATE_NONE) {
+                state = STATE_PREDICTED;
+            }
+            return;
+        }
+
+        double angleVariance = sq(ANGLE_MEASUREMENT_STD);
+        double areaVariance = sq(AREA_MEASUREMENT_FRACTION * Math.max(target.minRectArea, 1));
+        if (state != STATE_NONE
+                && (degreesX.outsideGate(target.degreesHorizontal, angleVariance, gateSigma)
+                || degreesY.outsideGate(target.degreesVertical, angleVariance, gateSigma))) {
+            resets++;
+            state = STATE_NONE;
+        }
+        if (state == STATE_NONE) {
+            degreesX.reset(target.degreesHorizontal, angleVariance, sq(ANGLE_RATE_INITIAL_STD));
+            degreesY.reset(target.degreesVertical, angleVariance, sq(ANGLE_RATE_INITIAL_STD));
+            area.reset(target.minRectArea, areaVariance, sq(AREA_RATE_INITIAL_FRACTION * target.minRectArea));
+        } else {
+            degreesX.correct(target.degreesHorizontal, angleVariance);
+            degreesY.correct(target.degreesVertical, angleVariance);
+            area.correct(target.minRectArea, areaVariance);
+        }
+        state = STATE_MEASURED;
+        lastMeasuredTime = time;
+    }
+
+    /**
+     * Drops the track, the next target starts a new one without counting as a reset
+     */
+    public void clear() {
+        state = STATE_NONE;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return capture time of the last frame with a target, microseconds
+     */
+    public long getLastMeasuredTime() {
+        return lastMeasuredTime;
+    }
+
+    /**
+     * @return tracks started because a measurement was outside the gate
+     */
+    public long getResets() {
+        return resets;
+    }
+
+    public ConstantVelocityFilter getDegreesX() {
+        return degreesX;
+    }
+
+    public ConstantVelocityFilter getDegreesY() {
+        return degreesY;
+    }
+
+    public ConstantVelocityFilter getArea() {
+        return area;
+    }
+
+    private static double sq(double value) {
+        return value * value;
+    }
+
+    /**
+     * State [value, rate] per second and its covariance
+     */
+    public static class ConstantVelocityFilter {
+        private double value;
+        private double rate;
+        private double valueVariance;
+        private double covariance;
+        private double rateVariance;
+
+        void reset(double measurement, double measurementVariance, double rateVariance) {
+            this.value = measurement;
+            this.rate = 0;
+            this.valueVariance = measurementVariance;
+            this.covariance = 0;
+            this.rateVariance = rateVariance;
+        }
+
+        /**
+         * @param processNoise white acceleration spectral density
+         */
+        void predict(double dt, double processNoise) {
+            value += rate * dt;
+            double dt2 = dt * dt;
+            valueVariance += 2 * dt * covariance + dt2 * rateVariance + processNoise * dt2 * dt / 3;
+            covariance += dt * rateVariance + processNoise * dt2 / 2;
+            rateVariance += processNoise * dt;
+        }
+
+        void correct(double measurement, double measurementVariance) {
+            double innovation = measurement - value;
+            double innovationVariance = valueVariance + measurementVariance;
+            double valueGain = valueVariance / innovationVariance;
+            double rateGain = covariance / innovationVariance;
+            value += valueGain * innovation;
+            rate += rateGain * innovation;
+            rateVariance -= rateGain * covariance;
+            valueVariance *= 1 - valueGain;
+            covariance *= 1 - valueGain;
+        }
+
+        boolean outsideGate(double measurement, double measurementVariance, double gateSigma) {
+            double innovation = measurement - value;
+            return innovation * innovation > gateSigma * gateSigma * (valueVariance + measurementVariance);
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public double getValueVariance() {
+            return valueVariance;
+        }
+
+        public double getCovariance() {
+            return covariance;
+        }
+
+        public double getRateVariance() {
+            return rateVariance;
+        }
+    }
+}
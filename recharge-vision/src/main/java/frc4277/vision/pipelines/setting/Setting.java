@@ -3,21 +3,23 @@ package frc4277.vision.pipelines.setting;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
-import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardTab;
 import frc4277.vision.Constants;
 import frc4277.vision.pipelines.Pipeline;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Setting<T> {
-    private static final long MAXIMUM_CACHE_MS = 1000;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
 
+    private final int id = NEXT_ID.getAndIncrement();
     private String key;
     private T defaultValue;
     private NetworkTableEntry entry;
     private Class<? extends T> valueClass;
-    private T value;
-    private long lastUpdateTimestamp = -1;
     private String widgetType;
+    // Where values are read from, another instance's setting for a private copy of a shared stage
+    private Setting<T> source = this;
 
     public Setting(String key, Class<? extends T> valueClass, T defaultValue, String widgetType) {
         this.key = key;
@@ -30,6 +32,10 @@ public class Setting<T> {
         this(key, valueClass, defaultValue, builtInWidget.getWidgetName());
     }
 
+    int getId() {
+        return id;
+    }
+
     public String getKey() {
         return key;
     }
@@ -42,16 +48,19 @@ public class Setting<T> {
         if (widgetType == null) {
             // No widget
             this.entry = pipelineTable.getEntry(key);
+            entry.setDefaultValue(defaultValue);
         } else {
             // Widget
             this.entry = visionTab.add( pipeline.getName()+ "_" + key, defaultValue).withWidget(widgetType).getEntry();
         }
+        // The listener is the only place values are read from NetworkTables, it publishes a new snapshot on change
         entry.addListener(notification -> {
             Object value = notification.value.getValue();
 
             if (value == null || !notification.value.isValid()) {
-                this.value = defaultValue;
+                SettingsSnapshot.update(this, null);
                 entry.setValue(defaultValue);
+                return;
             }
 
             setValue(value);
@@ -60,26 +69,56 @@ public class Setting<T> {
 
     @SuppressWarnings("unchecked")
     private void setValue(Object o) {
-        try {
-            if (o instanceof Double && valueClass.equals(Integer.class)) {
-                Setting.this.value = (T) (Object) ((Double) o).intValue();
-            } else {
-                Setting.this.value = (T) o;
-            }
-            lastUpdateTimestamp = System.currentTimeMillis();
-        } catch (Exception e) {
+        Object value = convert(o);
+        if (!valueClass.isInstance(value)) {
             System.out.println("Failed to cast value of entry " + entry.getName() + " to " + valueClass.getCanonicalName());
+            return;
         }
+        SettingsSnapshot.update(this, (T) value);
     }
 
-    public T get() {
-        if ((System.currentTimeMillis() - lastUpdateTimestamp) >= MAXIMUM_CACHE_MS) {
-            setValue(entry.getValue().getValue());
+    /**
+     * Overrides the default value, e.g. from the pipeline graph configuration. Call before setupAutomaticEntry
+     */
+    @SuppressWarnings("unchecked")
+    public void setDefaultValue(Object o) {
+        Object value = convert(o);
+        if (!valueClass.isInstance(value)) {
+            throw new IllegalArgumentException("Setting " + key + " expects " + valueClass.getSimpleName() + ", got " + o);
         }
-        if (value == null) {
-            value = defaultValue;
-            entry.setValue(defaultValue);
+        this.defaultValue = (T) value;
+    }
+
+    private Object convert(Object o) {
+        // NetworkTables and Gson only have doubles
+        if (o instanceof Double && valueClass.equals(Integer.class)) {
+            return ((Double) o).intValue();
         }
-        return value;
+        return o;
+    }
+
+    /**
+     * Reads source's value from now on instead of this setting's own
+     */
+    @SuppressWarnings("unchecked")
+    public void follow(Setting<?> source) {
+        if (source.valueClass != valueClass || !source.key.equals(key)) {
+            throw new IllegalArgumentException("Setting " + key + " can not follow " + source.key);
+        }
+        this.source = (Setting<T>) source;
+    }
+
+    /**
+     * Value pinned for the frame being processed, use this in pipelines
+     */
+    public T get(Pipeline.Context context) {
+        return context.settings.get(source);
+    }
+
+    /**
+     * Latest value, for use outside of a frame
+     */
+    public T get() {
+        return SettingsSnapshot.current().get(source);
     }
 }
@@ -0,0 +1,165 @@
+package frc4277.vision.pipelines.setting;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import frc4277.vision.pipelines.Pipeline;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps every setting tuned away from its default in a local file, so the Pi runs on tuned values from its first frame
+ * instead of the defaults it would use until NetworkTables connects. Cached values become the settings' defaults,
+ * they override the code and the pipeline graph file. Delete the file, or tune a value back to its default, to go
+ * back to those.
+ * <p>
+ * The file is rewritten in the background within a second of a tuned value changing.
+ * <pre>
+ * {"Contour": {"minContourPoints": 4, "trackingEnabled": true}, "HSV": {"h_min": 60}}
+ * </pre>
+ */
+public class SettingsCache {
+    private static final long SAVE_INTERVAL_MS = 1000;
+    private static final Type FILE_TYPE = new TypeToken<Map<String, Map<String, Object>>>() {}.getType();
+
+    private final Path path;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Map<String, Pipeline> pipelines = new LinkedHashMap<>();
+    private Map<String, Map<String, Object>> cached = new LinkedHashMap<>();
+    // Defaults from the code and the graph file, before cached values replaced them
+    private final Map<Setting<?>, Object> baseDefaults = new IdentityHashMap<>();
+    private volatile boolean running = false;
+    private long savedVersion = -1;
+    private JsonElement saved;
+
+    public SettingsCache(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads the file, a missing or unreadable file leaves every setting on its default
+     */
+    public void load() {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            Map<String, Map<String, Object>> cached = gson.fromJson(reader, FILE_TYPE);
+            if (cached != null) {
+                this.cached = cached;
+            }
+            System.out.println("Loaded cached settings from " + path);
+        } catch (NoSuchFileException e) {
+            System.out.println("No cached settings at " + path + ", using defaults");
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Failed to load cached settings from " + path + ", using defaults");
+            e.printStackTrace();
+        }
+        saved = gson.toJsonTree(cached, FILE_TYPE);
+    }
+
+    /**
+     * Applies the pipeline's cached values and saves its settings from now on. Call before
+     * {@link Setting#setupAutomaticEntry} so NetworkTables starts out with the cached values too.
+     */
+    public void apply(Pipeline pipeline) {
+        pipelines.put(pipeline.getName(), pipeline);
+        for (Setting<?> setting : pipeline.getSettings()) {
+            baseDefaults.put(setting, setting.getDefaultValue());
+        }
+        Map<String, Object> values = cached.get(pipeline.getName());
+        if (values == null) {
+            return;
+        }
+        for (Setting<?> setting : pipeline.getSettings()) {
+            Object value = values.get(setting.getKey());
+            if (value == null) {
+                continue;
+            }
+            try {
+                setting.setDefaultValue(value);
+            } catch (IllegalArgumentException e) {
+                // The setting changed type since the file was written
+                System.out.println("Ignoring cached " + pipeline.getName() + " " + e.getMessage());
+            }
+        }
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::run, "vision-SettingsCache");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(SAVE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            SettingsSnapshot snapshot = SettingsSnapshot.current();
+            if (snapshot.getVersion() == savedVersion) {
+                continue;
+            }
+            savedVersion = snapshot.getVersion();
+            try {
+                save(snapshot);
+            } catch (IOException e) {
+                System.out.println("Failed to save settings to " + path);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void save(SettingsSnapshot snapshot) throws IOException {
+        // Keep pipelines this run does not have, they may belong to another graph
+        Map<String, Map<String, Object>> values = new LinkedHashMap<>(cached);
+        for (Pipeline pipeline : pipelines.values()) {
+            Map<String, Object> pipelineValues = new LinkedHashMap<>();
+            for (Setting<?> setting : pipeline.getSettings()) {
+                Object value = snapshot.get(setting);
+                // Untuned values stay out, so changing a default in code or the graph file still takes effect
+                if (!Objects.equals(value, baseDefaults.get(setting))) {
+                    pipelineValues.put(setting.getKey(), value);
+                }
+            }
+            if (pipelineValues.isEmpty()) {
+                values.remove(pipeline.getName());
+            } else {
+                values.put(pipeline.getName(), pipelineValues);
+            }
+        }
+        // Compared as trees, the file's numbers are all doubles and key order does not matter
+        JsonElement tree = gson.toJsonTree(values, FILE_TYPE);
+        if (tree.equals(saved)) {
+            return;
+        }
+        String json = gson.toJson(tree);
+        // Write and rename, so losing power mid-write never leaves a broken file
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary)) {
+            writer.write(json);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved = tree;
+    }
+}
@@ -0,0 +1,45 @@
+package frc4277.vision.pipelines.setting;
+
+import java.util.Arrays;
+
+/**
+ * Immutable values of every {@link Setting}. NetworkTables listeners publish a new version on every change,
+ * and each frame pins one snapshot so its values are consistent and reading them costs nothing.
+ */
+public final class SettingsSnapshot {
+    private static volatile SettingsSnapshot current = new SettingsSnapshot(new Object[0], 0);
+
+    private final Object[] values;
+    private final long version;
+
+    private SettingsSnapshot(Object[] values, long version) {
+        this.values = values;
+        this.version = version;
+    }
+
+    public static SettingsSnapshot current() {
+        return current;
+    }
+
+    /**
+     * Publishes a new snapshot with one setting changed, null resets it to its default
+     */
+    static synchronized <T> void update(Setting<T> setting, T value) {
+        SettingsSnapshot previous = current;
+        int id = setting.getId();
+        Object[] values = Arrays.copyOf(previous.values, Math.max(previous.values.length, id + 1));
+        values[id] = value;
+        current = new SettingsSnapshot(values, previous.version + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Setting<T> setting) {
+        int id = setting.getId();
+        Object value = id < values.length ? values[id] : null;
+        return value == null ? setting.getDefaultValue() : (T) value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
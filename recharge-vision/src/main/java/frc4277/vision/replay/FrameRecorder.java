@@ -0,0 +1,67 @@
+package frc4277.vision.replay;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Records the raw camera frames going into {@link frc4277.vision.pipelines.MainPipeline} for {@link ReplayRunner}.
+ * The recording is created on the first frame, since that is when the frame size is known.
+ */
+public class FrameRecorder {
+    private final Path path;
+    private final int maxFrames;
+    private FrameRecording recording;
+    private byte[] buffer;
+    private volatile boolean finished = false;
+
+    public FrameRecorder(Path path, int maxFrames) {
+        this.path = path;
+        this.maxFrames = maxFrames;
+    }
+
+    public void record(Mat frame, long timestamp) {
+        if (finished) {
+            return;
+        }
+        try {
+            if (recording == null) {
+                recording = FrameRecording.create(path, frame.width(), frame.height(), frame.type(),
+                        (int) frame.elemSize(), maxFrames);
+                buffer = new byte[recording.getFrameBytes()];
+                System.out.println("Recording " + maxFrames + " frames to " + path);
+            }
+            if (frame.width() != recording.getWidth() || frame.height() != recording.getHeight()
+                    || frame.type() != recording.getType()) {
+                // Camera mode changed mid recording, skip frames that don't fit the slots
+                return;
+            }
+            frame.get(0, 0, buffer);
+            if (!recording.append(buffer, timestamp)) {
+                finish();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to record frames to " + path);
+            e.printStackTrace();
+            finished = true;
+        }
+    }
+
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.close();
+            System.out.println("Finished recording " + recording.getFrameCount() + " frames to " + path);
+        } catch (IOException e) {
+            System.out.println("Failed to close recording " + path);
+            e.printStackTrace();
+        }
+    }
+}
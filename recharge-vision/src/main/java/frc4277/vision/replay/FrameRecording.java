@@ -0,0 +1,159 @@
+package frc4277.vision.replay;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped file of raw frames and their capture timestamps.
+ * Layout: a fixed header, then one slot per frame of [long timestamp][width * height * elemSize bytes].
+ */
+public class FrameRecording implements Closeable {
+    private static final int MAGIC = 0x46524543; // FREC
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int FRAME_COUNT_OFFSET = 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int frameBytes;
+    private final int slotBytes;
+    private final int capacity;
+    private final int framesPerChunk;
+    private int frameCount;
+
+    private FrameRecording(FileChannel channel, MappedByteBuffer header, int width, int height, int type,
+                           int frameBytes, int capacity, int frameCount) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        this.width = width;
+        this.height = height;
+        this.type = type;
+        this.frameBytes = frameBytes;
+        this.slotBytes = Long.BYTES + frameBytes;
+        this.capacity = capacity;
+        this.frameCount = frameCount;
+        // A single mapping is limited to 2 GB
+        this.framesPerChunk = Math.max(1, Integer.MAX_VALUE / slotBytes);
+
+        FileChannel.MapMode mode = header.isReadOnly() ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        for (int first = 0; first < capacity; first += framesPerChunk) {
+            int frames = Math.min(framesPerChunk, capacity - first);
+            MappedByteBuffer chunk = channel.map(mode, HEADER_BYTES + (long) first * slotBytes, (long) frames * slotBytes);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunks.add(chunk);
+        }
+    }
+
+    public static FrameRecording create(Path path, int width, int height, int type, int elemSize, int capacity)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        int frameBytes = width * height * elemSize;
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, width);
+        header.putInt(12, height);
+        header.putInt(16, type);
+        header.putInt(FRAME_COUNT_OFFSET, 0);
+        header.putInt(24, capacity);
+        header.putInt(28, frameBytes);
+        return new FrameRecording(channel, header, width, height, type, frameBytes, capacity, 0);
+    }
+
+    public static FrameRecording open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a frame recording: " + path);
+        }
+        int frameCount = header.getInt(FRAME_COUNT_OFFSET);
+        // Only map the frames that were actually recorded
+        return new FrameRecording(channel, header, header.getInt(8), header.getInt(12), header.getInt(16),
+                header.getInt(28), frameCount, frameCount);
+    }
+
+    /**
+     * @return false if the recording is full
+     */
+    public boolean append(byte[] frame, long timestamp) {
+        if (frameCount >= capacity) {
+            return false;
+        }
+        MappedByteBuffer chunk = chunks.get(frameCount / framesPerChunk);
+        int offset = (frameCount % framesPerChunk) * slotBytes;
+        chunk.putLong(offset, timestamp);
+        chunk.position(offset + Long.BYTES);
+        chunk.put(frame, 0, frameBytes);
+        frameCount++;
+        // Written last so a crash mid-frame never exposes a partial frame
+        header.putInt(FRAME_COUNT_OFFSET, frameCount);
+        return true;
+    }
+
+    /**
+     * Reads a frame into the given Mat, reusing its memory when the size matches
+     * @return the frame's capture timestamp
+     */
+    public long read(int index, Mat mat, byte[] buffer) {
+        MappedByteBuffer chunk = chunks.get(index / framesPerChunk);
+        int offset = (index % framesPerChunk) * slotBytes;
+        long timestamp = chunk.getLong(offset);
+        chunk.position(offset + Long.BYTES);
+        chunk.get(buffer, 0, frameBytes);
+        mat.create(height, width, type);
+        mat.put(0, 0, buffer);
+        return timestamp;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!header.isReadOnly()) {
+            header.force();
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+        channel.close();
+    }
+}
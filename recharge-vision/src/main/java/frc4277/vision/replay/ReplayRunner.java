@@ -0,0 +1,86 @@
+package frc4277.vision.replay;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.pipelines.ContourPipeline;
+import frc4277.vision.pipelines.LatencyHistogram;
+import frc4277.vision.pipelines.MainPipeline;
+import frc4277.vision.pipelines.PipelineGraph;
+import frc4277.vision.pipelines.Pipelines;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Feeds a {@link FrameRecording} through {@link MainPipeline} as fast as possible, without a camera or NetworkTables.
+ * Prints one CSV line of target results per frame, then per stage timing.
+ * Usage: ReplayRunner recording [passes]
+ */
+public class ReplayRunner {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: ReplayRunner recording [passes]");
+            return;
+        }
+        Path path = Paths.get(args[0]);
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        CameraServerCvJNI.forceLoad();
+
+        try (FrameRecording recording = FrameRecording.open(path)) {
+            run(recording, passes);
+        }
+    }
+
+    private static void run(FrameRecording recording, int passes) {
+        System.out.println("# " + recording.getFrameCount() + " frames, " + recording.getWidth() + "x"
+                + recording.getHeight() + ", " + passes + " passes");
+        MainPipeline mainPipeline = new MainPipeline(null, null);
+        ContourPipeline contourPipeline = (ContourPipeline) Pipelines.CONTOUR.getInstance();
+        int frames = 0;
+        int framesWithTarget = 0;
+
+        Mat frame = new Mat();
+        byte[] buffer = new byte[recording.getFrameBytes()];
+
+        System.out.println("frame,timestamp,found,x,y,degX,degY,minRectArea");
+        long replayStart = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++) {
+            for (int i = 0; i < recording.getFrameCount(); i++) {
+                long timestamp = recording.read(i, frame, buffer);
+
+                mainPipeline.process(frame, timestamp);
+                frames++;
+
+                ContourPipeline.PotentialSmartTarget target = contourPipeline.getLastTarget();
+                if (target == null) {
+                    System.out.println(i + "," + timestamp + ",false,,,,,");
+                } else {
+                    framesWithTarget++;
+                    System.out.println(i + "," + timestamp + ",true," + target.center.x + "," + target.center.y + ","
+                            + target.degreesHorizontal + "," + target.degreesVertical + "," + target.minRectArea);
+                }
+            }
+        }
+        long replayNanos = System.nanoTime() - replayStart;
+        frame.release();
+
+        if (frames == 0) {
+            return;
+        }
+        List<PipelineGraph.Node> stages = mainPipeline.getGraph().getNodes();
+        for (int i = 0; i < stages.size(); i++) {
+            LatencyHistogram histogram = mainPipeline.getStageHistogram(i);
+            histogram.snapshotAndReset();
+            System.out.println("# " + stages.get(i) + ": " + histogram.format());
+        }
+        LatencyHistogram frameHistogram = mainPipeline.getFrameHistogram();
+        frameHistogram.snapshotAndReset();
+        System.out.println("# frame: " + frameHistogram.format());
+        // Includes printing results, so slightly below what the pipeline alone sustains
+        System.out.printf("# %.1f fps%n", frames / (replayNanos / 1e9));
+        System.out.printf("# target found in %d of %d frames%n", framesWithTarget, frames);
+    }
+}
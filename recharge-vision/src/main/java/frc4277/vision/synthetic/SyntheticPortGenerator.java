@@ -0,0 +1,243 @@
+package frc4277.vision.synthetic;
+
+import frc4277.vision.CameraIntrinsics;
+import frc4277.vision.Constants;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Renders the power port's retroreflective target into BGR frames with a known pose, for measuring the pipeline
+ * without a camera. The target is the U of tape along the port's sides and bottom, lit green by the ring light, drawn
+ * with sub-pixel precision and anti-aliasing. Frames can add sensor noise and green distractors that are not U shaped.
+ * <p>
+ * Uses the target and camera frames of {@link frc4277.vision.pipelines.PoseEstimator}, with no lens distortion.
+ */
+public class SyntheticPortGenerator {
+    private static final double TAPE_WIDTH_M = 0.0508;
+    private static final double TOP_HALF_WIDTH = Constants.POWER_PORT_TOP_WIDTH_M / 2;
+    private static final double BOTTOM_HALF_WIDTH = Constants.POWER_PORT_BOTTOM_WIDTH_M / 2;
+    private static final double HALF_HEIGHT = Constants.POWER_PORT_HEIGHT_M / 2;
+    // fillPoly takes fixed point coordinates with this many fractional bits
+    private static final int SHIFT = 4;
+    private static final double SUBPIXEL = 1 << SHIFT;
+    // Outline of the tape in the target frame, x/y pairs going around the U
+    private static final double[] TARGET_OUTLINE = targetOutline();
+
+    private final CameraIntrinsics intrinsics;
+    private final Random random;
+    private final Mat noise = new Mat();
+    private final Mat wide = new Mat();
+    private final double[] projected = new double[TARGET_OUTLINE.length];
+    private final List<MatOfPoint> polygons = new ArrayList<>();
+
+    /**
+     * @param seed the same seed renders the same frames
+     */
+    public SyntheticPortGenerator(CameraIntrinsics intrinsics, long seed) {
+        this.intrinsics = intrinsics;
+        this.random = new Random(seed);
+        Core.setRNGSeed((int) seed);
+    }
+
+    /**
+     * @param frame receives the rendered BGR frame at the intrinsics' size
+     * @param truth receives where the target is
+     * @return false when part of the target is outside the frame or behind the camera, the frame is not rendered
+     */
+    public boolean render(Scene scene, Mat frame, Truth truth) {
+        double skew = Math.toRadians(scene.skewDegrees);
+        double bearing = Math.toRadians(scene.bearingDegrees);
+        double cos = Math.cos(skew);
+        double sin = Math.sin(skew);
+        // Target origin in the camera frame, y is down so a target above the camera has negative y
+        double tx = scene.distance * Math.sin(bearing);
+        double ty = -scene.heightAboveCamera;
+        double tz = scene.distance * Math.cos(bearing);
+
+        for (int i = 0; i < TARGET_OUTLINE.length; i += 2) {
+            // Yaw about the target's vertical axis
+            double x = cos * TARGET_OUTLINE[i] + tx;
+            double y = TARGET_OUTLINE[i + 1] + ty;
+            double z = -sin * TARGET_OUTLINE[i] + tz;
+            if (z <= 0) {
+                return false;
+            }
+            projected[i] = intrinsics.fx * x / z + intrinsics.cx;
+            projected[i + 1] = intrinsics.fy * y / z + intrinsics.cy;
+            if (projected[i] < 1 || projected[i] > intrinsics.width - 2
+                    || projected[i + 1] < 1 || projected[i + 1] > intrinsics.height - 2) {
+                return false;
+            }
+        }
+
+        // Outer corners, the ones the pipeline looks for
+        double topLeftX = projected[0], topLeftY = projected[1];
+        double bottomRightX = projected[4], bottomRightY = projected[5];
+        double centerX = (topLeftX + bottomRightX) / 2;
+        double centerY = (topLeftY + bottomRightY) / 2;
+        truth.degreesHorizontal = Math.toDegrees(Math.atan((centerX - intrinsics.cx) / intrinsics.fx));
+        truth.degreesVertical = Math.toDegrees(Math.atan((centerY - intrinsics.cy) / intrinsics.fy));
+        truth.range = Math.sqrt(tx * tx + ty * ty + tz * tz);
+        truth.minX = truth.maxX = topLeftX;
+        truth.minY = truth.maxY = topLeftY;
+        for (int i = 0; i < projected.length; i += 2) {
+            truth.minX = Math.min(truth.minX, projected[i]);
+            truth.maxX = Math.max(truth.maxX, projected[i]);
+            truth.minY = Math.min(truth.minY, projected[i + 1]);
+            truth.maxY = Math.max(truth.maxY, projected[i + 1]);
+        }
+
+        frame.create(intrinsics.height, intrinsics.width, CvType.CV_8UC3);
+        int background = 20 + random.nextInt(30);
+        frame.setTo(new Scalar(background, background, background));
+        for (int i = 0; i < scene.distractors; i++) {
+            drawDistractor(frame, truth);
+        }
+        drawPolygon(frame, projected, projected.length / 2, targetColor());
+
+        // Optics soften every edge a little before the sensor adds noise
+        Imgproc.GaussianBlur(frame, frame, new Size(3, 3), 0.7);
+        if (scene.noise > 0) {
+            frame.convertTo(wide, CvType.CV_16SC3);
+            noise.create(frame.size(), CvType.CV_16SC3);
+            Core.randn(noise, 0, scene.noise);
+            Core.add(wide, noise, wide);
+            wide.convertTo(frame, CvType.CV_8UC3);
+        }
+        return true;
+    }
+
+    /**
+     * Solid green blobs and bars, like lights and reflections, kept clear of the target
+     */
+    private void drawDistractor(Mat frame, Truth truth) {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            double width = 6 + random.nextDouble() * 60;
+            double height = 6 + random.nextDouble() * 60;
+            if (random.nextBoolean()) {
+                // Thin bar
+                if (random.nextBoolean()) {
+                    height = 3 + random.nextDouble() * 4;
+                } else {
+                    width = 3 + random.nextDouble() * 4;
+                }
+            }
+            double x = random.nextDouble() * (intrinsics.width - width);
+            double y = random.nextDouble() * (intrinsics.height - height);
+            if (x + width > truth.minX - 10 && x < truth.maxX + 10 && y + height > truth.minY - 10 && y < truth.maxY + 10) {
+                continue;
+            }
+            if (random.nextBoolean()) {
+                Imgproc.ellipse(frame, new Point(x + width / 2, y + height / 2), new Size(width / 2, height / 2),
+                        0, 0, 360, targetColor(), -1, Imgproc.LINE_AA);
+            } else {
+                double[] corners = {x, y, x + width, y, x + width, y + height, x, y + height};
+                drawPolygon(frame, corners, 4, targetColor());
+            }
+            return;
+        }
+    }
+
+    private void drawPolygon(Mat frame, double[] points, int count, Scalar color) {
+        Point[] fixedPoints = new Point[count];
+        for (int i = 0; i < count; i++) {
+            fixedPoints[i] = new Point(Math.round(points[i * 2] * SUBPIXEL), Math.round(points[i * 2 + 1] * SUBPIXEL));
+        }
+        MatOfPoint polygon = new MatOfPoint(fixedPoints);
+        polygons.clear();
+        polygons.add(polygon);
+        Imgproc.fillPoly(frame, polygons, color, Imgproc.LINE_AA, SHIFT, new Point());
+        polygon.release();
+    }
+
+    private Scalar targetColor() {
+        // Ring light green, varying with the tape's angle to the light
+        double value = 180 + random.nextInt(76);
+        return new Scalar(value * 0.4, value, value * 0.3);
+    }
+
+    /**
+     * Outer top left, outer bottom left, outer bottom right, outer top right, then back along the inside of the tape
+     */
+    private static double[] targetOutline() {
+        // Inside edge of the left leg, the outer edge moved along its inward normal by the tape width
+        double legX = TOP_HALF_WIDTH - BOTTOM_HALF_WIDTH;
+        double legY = 2 * HALF_HEIGHT;
+        double legLength = Math.sqrt(legX * legX + legY * legY);
+        double normalX = legY / legLength;
+        double normalY = -legX / legLength;
+        double innerX = -TOP_HALF_WIDTH + TAPE_WIDTH_M * normalX;
+        double innerY = -HALF_HEIGHT + TAPE_WIDTH_M * normalY;
+        // Where it meets the top of the target and the inside edge of the bottom tape
+        double innerTopX = innerX + (-HALF_HEIGHT - innerY) * legX / legY;
+        double innerBottomY = HALF_HEIGHT - TAPE_WIDTH_M;
+        double innerBottomX = innerX + (innerBottomY - innerY) * legX / legY;
+        return new double[]{
+                -TOP_HALF_WIDTH, -HALF_HEIGHT,
+                -BOTTOM_HALF_WIDTH, HALF_HEIGHT,
+                BOTTOM_HALF_WIDTH, HALF_HEIGHT,
+                TOP_HALF_WIDTH, -HALF_HEIGHT,
+                -innerTopX, -HALF_HEIGHT,
+                -innerBottomX, innerBottomY,
+                innerBottomX, innerBottomY,
+                innerTopX, -HALF_HEIGHT
+        };
+    }
+
+    /**
+     * Pose of the target relative to the camera and what else is in the frame
+     */
+    public static class Scene {
+        // Metres from the camera to the middle of the target, along the ground
+        public final double distance;
+        // Left of the camera's axis is negative
+        public final double bearingDegrees;
+        // Yaw of the wall, 0 when it faces the camera squarely
+        public final double skewDegrees;
+        public final double heightAboveCamera;
+        // Standard deviation of the sensor noise, 0 - 255
+        public final double noise;
+        public final int distractors;
+
+        public Scene(double distance, double bearingDegrees, double skewDegrees, double heightAboveCamera,
+                     double noise, int distractors) {
+            this.distance = distance;
+            this.bearingDegrees = bearingDegrees;
+            this.skewDegrees = skewDegrees;
+            this.heightAboveCamera = heightAboveCamera;
+            this.noise = noise;
+            this.distractors = distractors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f m, bearing %.0f, skew %.0f, noise %.0f, %d distractors", distance,
+                    bearingDegrees, skewDegrees, noise, distractors);
+        }
+    }
+
+    /**
+     * Where the target was rendered, with angles measured the same way as the pipeline's
+     */
+    public static class Truth {
+        public double degreesHorizontal;
+        public double degreesVertical;
+        // Metres from the camera to the middle of the target
+        public double range;
+        // Pixel bounds of the tape
+        public double minX;
+        public double minY;
+        public double maxX;
+        public double maxY;
+    }
+}
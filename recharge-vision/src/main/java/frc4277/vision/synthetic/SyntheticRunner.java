@@ -0,0 +1,250 @@
+package frc4277.vision.synthetic;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import frc4277.vision.CameraIntrinsics;
+import frc4277.vision.Constants;
+import frc4277.vision.pipelines.ContourPipeline;
+import frc4277.vision.pipelines.MainPipeline;
+import frc4277.vision.pipelines.Pipelines;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders power port frames over a grid of distances, angles, noise levels and distractors with
+ * {@link SyntheticPortGenerator}, feeds them through {@link MainPipeline} and reports detection rate, angle and distance
+ * error and frames per second, overall and per distance. Exits with 1 when a gate fails, so it can run as a
+ * regression check.
+ * Usage: SyntheticRunner [framesPerScene=3] [seed=4277] [minDetection=0.9] [maxAngleError=1] [maxDistanceError=0.1]
+ * [maxPoseFailures=0.05] [minFps=100]
+ * where maxAngleError is the p95 horizontal angle error in degrees, maxDistanceError is the p95 distance error as a
+ * fraction of the distance and maxPoseFailures is the fraction of detections without a pose. A gate with no samples to
+ * measure fails. minFps defaults to the PS Eye's frame rate, the pipeline has to keep up with the camera.
+ * The other defaults are the accuracy targets the runner was written against. They have not been tightened from a
+ * measured run yet, so when gradle check prints its report, lower them to just outside the measured values.
+ * <p>
+ * Scenes are independent: tracking is off and the contour stage's track and pose guess are reset before each scene,
+ * so one scene's result never steers the next.
+ */
+public class SyntheticRunner {
+    private static final double[] DISTANCES = {1.5, 3, 4.5, 6, 8};
+    private static final double[] BEARINGS = {-25, -10, 0, 10, 25};
+    private static final double[] SKEWS = {-40, -20, 0, 20, 40};
+    private static final double[] NOISES = {0, 8, 16};
+    private static final int[] DISTRACTORS = {0, 4};
+    // Target centre above the camera's axis
+    private static final double HEIGHT_ABOVE_CAMERA_M = 0.3;
+    // A detection further off than this is the wrong target, counted as a miss
+    private static final double WRONG_TARGET_DEGREES = 3;
+    private static final long FRAME_MICROS = 1_000_000 / Constants.PSEYE_DEFAULT_FPS;
+
+    public static void main(String[] args) throws IOException {
+        int framesPerScene = 3;
+        long seed = 4277;
+        double minDetection = 0.9;
+        double maxAngleError = 1;
+        double maxDistanceError = 0.1;
+        double maxPoseFailures = 0.05;
+        double minFps = Constants.PSEYE_DEFAULT_FPS;
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2) {
+                System.out.println("Ignoring " + arg + ", expected key=value");
+                continue;
+            }
+            switch (keyValue[0]) {
+                case "framesPerScene":
+                    framesPerScene = Integer.parseInt(keyValue[1]);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(keyValue[1]);
+                    break;
+                case "minDetection":
+                    minDetection = Double.parseDouble(keyValue[1]);
+                    break;
+                case "maxAngleError":
+                    maxAngleError = Double.parseDouble(keyValue[1]);
+                    break;
+                case "maxDistanceError":
+                    maxDistanceError = Double.parseDouble(keyValue[1]);
+                    break;
+                case "maxPoseFailures":
+                    maxPoseFailures = Double.parseDouble(keyValue[1]);
+                    break;
+                case "minFps":
+                    minFps = Double.parseDouble(keyValue[1]);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown " + arg);
+            }
+        }
+
+        CameraServerCvJNI.forceLoad();
+
+        CameraIntrinsics intrinsics = CameraIntrinsics.fromFieldOfView(Constants.PSEYE_WIDTH, Constants.PSEYE_HEIGHT);
+        SyntheticPortGenerator generator = new SyntheticPortGenerator(intrinsics, seed);
+        MainPipeline mainPipeline = new MainPipeline(null, null);
+        // Angles from the focal length, the same model the frames are rendered with
+        mainPipeline.getGraph().setIntrinsics(intrinsics);
+        ContourPipeline contourPipeline = (ContourPipeline) Pipelines.CONTOUR.getInstance();
+        contourPipeline.getSetting("trackingEnabled").setDefaultValue(false);
+
+        List<SyntheticPortGenerator.Scene> scenes = new ArrayList<>();
+        for (double distance : DISTANCES) {
+            for (double bearing : BEARINGS) {
+                for (double skew : SKEWS) {
+                    for (double noise : NOISES) {
+                        for (int distractors : DISTRACTORS) {
+                            scenes.add(new SyntheticPortGenerator.Scene(distance, bearing, skew,
+                                    HEIGHT_ABOVE_CAMERA_M, noise, distractors));
+                        }
+                    }
+                }
+            }
+        }
+
+        Results total = new Results("all");
+        Results[] byDistance = new Results[DISTANCES.length];
+        for (int i = 0; i < DISTANCES.length; i++) {
+            byDistance[i] = new Results(DISTANCES[i] + " m");
+        }
+        Mat frame = new Mat();
+        SyntheticPortGenerator.Truth truth = new SyntheticPortGenerator.Truth();
+        int skipped = 0;
+        long captureTime = 0;
+        for (int i = 0; i < scenes.size(); i++) {
+            SyntheticPortGenerator.Scene scene = scenes.get(i);
+            Results distanceResults = byDistance[Arrays.binarySearch(DISTANCES, scene.distance)];
+            contourPipeline.resetTracking();
+            for (int j = 0; j < framesPerScene; j++) {
+                if (!generator.render(scene, frame, truth)) {
+                    skipped++;
+                    continue;
+                }
+                captureTime += FRAME_MICROS;
+                // Only the pipeline is timed, not rendering
+                long start = System.nanoTime();
+                mainPipeline.process(frame, captureTime);
+                long nanos = System.nanoTime() - start;
+                ContourPipeline.PotentialSmartTarget target = contourPipeline.getLastTarget();
+                total.add(truth, target, nanos);
+                distanceResults.add(truth, target, nanos);
+            }
+        }
+        frame.release();
+
+        System.out.println("# " + total.frames + " frames, " + skipped + " skipped with the target out of frame");
+        System.out.println(Results.HEADER);
+        for (Results results : byDistance) {
+            System.out.println(results);
+        }
+        System.out.println(total);
+
+        boolean passed = true;
+        passed &= gate("detection rate", total.detectionRate(), minDetection, true);
+        passed &= gate("p95 angle error", total.angleErrors.percentile(0.95), maxAngleError, false);
+        passed &= gate("p95 distance error", total.distanceErrors.percentile(0.95), maxDistanceError, false);
+        passed &= gate("pose failure rate", total.poseFailureRate(), maxPoseFailures, false);
+        passed &= gate("fps", total.fps(), minFps, true);
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean gate(String name, double value, double limit, boolean minimum) {
+        // NaN compares false either way, no samples fails the gate
+        boolean passed = minimum ? value >= limit : value <= limit;
+        System.out.printf("# %s %.3f, %s %.3f: %s%n", name, value, minimum ? "min" : "max", limit,
+                passed ? "pass" : "FAIL");
+        return passed;
+    }
+
+    private static class Results {
+        static final String HEADER = "distance,frames,detected,wrong,detectionRate,angleMeanDeg,angleP95Deg,"
+                + "distanceMeanPct,distanceP95Pct,poseFailures,fps";
+
+        final String name;
+        final Errors angleErrors = new Errors();
+        // Fraction of the true distance
+        final Errors distanceErrors = new Errors();
+        int frames = 0;
+        int detected = 0;
+        int wrong = 0;
+        int poseFailures = 0;
+        long nanos = 0;
+
+        Results(String name) {
+            this.name = name;
+        }
+
+        void add(SyntheticPortGenerator.Truth truth, ContourPipeline.PotentialSmartTarget target, long frameNanos) {
+            frames++;
+            nanos += frameNanos;
+            if (target == null) {
+                return;
+            }
+            double angleError = Math.abs(target.degreesHorizontal - truth.degreesHorizontal);
+            if (angleError > WRONG_TARGET_DEGREES
+                    || Math.abs(target.degreesVertical - truth.degreesVertical) > WRONG_TARGET_DEGREES) {
+                wrong++;
+                return;
+            }
+            detected++;
+            angleErrors.add(angleError);
+            if (target.poseValid) {
+                distanceErrors.add(Math.abs(target.range - truth.range) / truth.range);
+            } else {
+                poseFailures++;
+            }
+        }
+
+        double detectionRate() {
+            return frames == 0 ? 0 : (double) detected / frames;
+        }
+
+        double poseFailureRate() {
+            return detected == 0 ? Double.NaN : (double) poseFailures / detected;
+        }
+
+        double fps() {
+            return nanos == 0 ? 0 : frames / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s,%d,%d,%d,%.3f,%.3f,%.3f,%.2f,%.2f,%d,%.0f", name, frames, detected, wrong,
+                    detectionRate(), angleErrors.mean(), angleErrors.percentile(0.95),
+                    distanceErrors.mean() * 100, distanceErrors.percentile(0.95) * 100, poseFailures, fps());
+        }
+    }
+
+    private static class Errors {
+        private double[] values = new double[256];
+        private int count = 0;
+
+        void add(double value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += values[i];
+            }
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        double percentile(double fraction) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            double[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+        }
+    }
+}
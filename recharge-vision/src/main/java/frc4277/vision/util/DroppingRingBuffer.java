@@ -0,0 +1,76 @@
+package frc4277.vision.util;
+
+/**
+ * Bounded FIFO that never blocks producers: when full, the oldest element is evicted and handed back to the caller.
+ */
+public class DroppingRingBuffer<T> {
+    private final Object[] elements;
+    private int head = 0;
+    private int size = 0;
+    private long dropCount = 0;
+
+    public DroppingRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.elements = new Object[capacity];
+    }
+
+    /**
+     * @return the element that was dropped to make room, or null if nothing was dropped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T offer(T element) {
+        T dropped = null;
+        if (size == elements.length) {
+            dropped = (T) elements[head];
+            elements[head] = null;
+            head = (head + 1) % elements.length;
+            size--;
+            dropCount++;
+        }
+        elements[(head + size) % elements.length] = element;
+        size++;
+        notifyAll();
+        return dropped;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized T take() throws InterruptedException {
+        while (size == 0) {
+            wait();
+        }
+        T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    /**
+     * @return the oldest element, or null right away if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public synchronized long getDropCount() {
+        return dropCount;
+    }
+}
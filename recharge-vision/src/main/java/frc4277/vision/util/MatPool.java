@@ -0,0 +1,179 @@
+package frc4277.vision.util;
+
+import edu.wpi.first.networktables.NetworkTable;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread pool of scratch Mats so pipelines do not allocate native memory every frame.
+ * A Mat must be given back to the pool of the thread that borrowed it. A pool's Mats are released once its thread has
+ * ended, e.g. after a restart replaced it.
+ */
+public final class MatPool {
+    private static final List<MatPool> POOLS = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<MatPool> LOCAL_POOL = ThreadLocal.withInitial(() -> {
+        pruneEndedThreads(null);
+        MatPool pool = new MatPool(Thread.currentThread());
+        POOLS.add(pool);
+        return pool;
+    });
+
+    private final String name;
+    // Weak so a pool never keeps its ended thread around
+    private final WeakReference<Thread> owner;
+    private final Map<Class<? extends Mat>, ArrayDeque<Mat>> freeMats = new HashMap<>();
+    private final List<Mat> ownedMats = new ArrayList<>();
+    // Size of each owned Mat when it was last given back, same order as ownedMats
+    private long[] ownedBytes = new long[16];
+    // Only written by the owning thread, read by whoever publishes statistics
+    private volatile int borrowedCount = 0;
+    private volatile long nativeBytes = 0;
+    private volatile long highWaterBytes = 0;
+
+    private MatPool(Thread owner) {
+        this.name = owner.getName();
+        this.owner = new WeakReference<>(owner);
+    }
+
+    public static MatPool get() {
+        return LOCAL_POOL.get();
+    }
+
+    public Mat borrow() {
+        return borrow(Mat.class, Mat::new);
+    }
+
+    public MatOfPoint borrowMatOfPoint() {
+        return borrow(MatOfPoint.class, MatOfPoint::new);
+    }
+
+    public MatOfPoint2f borrowMatOfPoint2f() {
+        return borrow(MatOfPoint2f.class, MatOfPoint2f::new);
+    }
+
+    public MatOfInt borrowMatOfInt() {
+        return borrow(MatOfInt.class, MatOfInt::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Mat> T borrow(Class<T> type, Supplier<T> factory) {
+        ArrayDeque<Mat> free = freeMats.get(type);
+        Mat mat = free == null ? null : free.poll();
+        if (mat == null) {
+            mat = factory.get();
+            if (ownedMats.size() == ownedBytes.length) {
+                ownedBytes = Arrays.copyOf(ownedBytes, ownedBytes.length * 2);
+            }
+            ownedBytes[ownedMats.size()] = 0;
+            ownedMats.add(mat);
+        }
+        borrowedCount++;
+        return (T) mat;
+    }
+
+    public void giveBack(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        freeMats.computeIfAbsent(mat.getClass(), type -> new ArrayDeque<>()).push(mat);
+        borrowedCount--;
+        updateNativeBytes(mat);
+    }
+
+    /**
+     * Only the given back Mat can have changed size, so only it is measured
+     */
+    private void updateNativeBytes(Mat mat) {
+        for (int i = 0; i < ownedMats.size(); i++) {
+            if (ownedMats.get(i) == mat) {
+                long bytes = mat.total() * mat.elemSize();
+                long total = nativeBytes + bytes - ownedBytes[i];
+                ownedBytes[i] = bytes;
+                nativeBytes = total;
+                if (total > highWaterBytes) {
+                    highWaterBytes = total;
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean isOwnerAlive() {
+        Thread thread = owner.get();
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Releases the Mats of pools whose thread has ended and forgets them. Nothing else can touch those Mats any more.
+     *
+     * @param statisticsTable their statistics entries are deleted from it, may be null
+     */
+    private static void pruneEndedThreads(NetworkTable statisticsTable) {
+        for (MatPool pool : POOLS) {
+            if (pool.isOwnerAlive() || !POOLS.remove(pool)) {
+                continue;
+            }
+            for (Mat mat : pool.ownedMats) {
+                mat.release();
+            }
+            pool.ownedMats.clear();
+            pool.freeMats.clear();
+            if (statisticsTable != null) {
+                String prefix = "mat_pool_" + pool.getName() + "_";
+                statisticsTable.delete(prefix + "bytes");
+                statisticsTable.delete(prefix + "high_water_bytes");
+                statisticsTable.delete(prefix + "mats");
+                statisticsTable.delete(prefix + "borrowed");
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    public int getOwnedCount() {
+        return ownedMats.size();
+    }
+
+    public long getNativeBytes() {
+        return nativeBytes;
+    }
+
+    public long getHighWaterBytes() {
+        return highWaterBytes;
+    }
+
+    public static void publishStatistics(NetworkTable statisticsTable) {
+        pruneEndedThreads(statisticsTable);
+        long totalBytes = 0;
+        long totalHighWaterBytes = 0;
+        for (MatPool pool : POOLS) {
+            totalBytes += pool.getNativeBytes();
+            totalHighWaterBytes += pool.getHighWaterBytes();
+            String prefix = "mat_pool_" + pool.getName() + "_";
+            statisticsTable.getEntry(prefix + "bytes").setDouble(pool.getNativeBytes());
+            statisticsTable.getEntry(prefix + "high_water_bytes").setDouble(pool.getHighWaterBytes());
+            statisticsTable.getEntry(prefix + "mats").setDouble(pool.getOwnedCount());
+            statisticsTable.getEntry(prefix + "borrowed").setDouble(pool.getBorrowedCount());
+        }
+        statisticsTable.getEntry("mat_pool_bytes").setDouble(totalBytes);
+        statisticsTable.getEntry("mat_pool_high_water_bytes").setDouble(totalHighWaterBytes);
+    }
+}
@@ -78,6 +78,17 @@ public final class Constants {
             public static final double HORIZONTAL_FOV_DEG = 60;
             public static final double MAX_X = 315;
         }
+        public static class PiBallConstants {
+            // Steer on balls found by recharge-vision instead of the Pixy2. Only once the Pi has a camera on the
+            // intake running graphs/cells.json, the PS Eye faces the port
+            public static final boolean ENABLED = false;
+            // recharge-vision camera config name of the intake camera, null for the first camera
+            public static final String CAMERA = "intake";
+            // recharge-vision pipeline graph branch ending in the ball detector
+            public static final String BRANCH = "cells";
+            // Stop steering on balls from frames older than this
+            public static final double MAX_AGE_S = 0.25;
+        }
     }
 
     public static class Intake {
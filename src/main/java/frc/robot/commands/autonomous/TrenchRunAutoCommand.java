@@ -10,7 +10,6 @@ package frc.robot.commands.autonomous;
 import edu.wpi.first.wpilibj2.command.CommandBase;
 import frc.robot.subsystems.DriveTrain;
 import frc.robot.subsystems.VisionSystem;
-import io.github.pseudoresonance.pixy2api.Pixy2CCC;
 
 import java.util.Optional;
 
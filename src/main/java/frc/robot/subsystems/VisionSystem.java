@@ -7,6 +7,7 @@
 
 package frc.robot.subsystems;
 
+import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInLayouts;
 import edu.wpi.first.wpilibj.shuffleboard.BuiltInWidgets;
 import edu.wpi.first.wpilibj.shuffleboard.ShuffleboardLayout;
@@ -18,11 +19,15 @@ import frc.robot.util.limelight.Limelight;
 import frc.robot.util.limelight.Pipeline;
 import frc.robot.util.limelight.StreamMode;
 import frc.robot.util.limelight.Target;
+import frc.robot.util.pivision.PiBall;
+import frc.robot.util.pivision.PiBalls;
+import frc.robot.util.pivision.PiVision;
 import io.github.pseudoresonance.pixy2api.Pixy2;
 import io.github.pseudoresonance.pixy2api.Pixy2CCC;
 import io.github.pseudoresonance.pixy2api.Pixy2CCC.Block;
 import io.github.pseudoresonance.pixy2api.links.SPILink;
 import static frc.robot.Constants.Vision.Limelight.*;
+import frc.robot.Constants.Vision.PiBallConstants;
 import frc.robot.Constants.Vision.Pixy2Constants;
 
 import java.util.ArrayList;
@@ -37,6 +42,8 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
   private Pipeline driverPipeline = new Pipeline("Driver", 0);
   private Pipeline portPipeline = new Pipeline("Port", 1);
   private Limelight limelight;
+  private PiVision piVision;
+  private PiBalls piBalls;
 
   private boolean calculateDistance = false;
   private double calculatedDistanceMeters = 0.0;
@@ -51,6 +58,8 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
   public VisionSystem(ShuffleboardTab driverTab) {
     this.driverTab = driverTab;
     this.limelight = new Limelight(driverPipeline, portPipeline);
+    this.piVision = new PiVision();
+    this.piBalls = new PiBalls("vision", PiBallConstants.CAMERA, PiBallConstants.BRANCH, piVision.getClockOffset());
 
     this.layout = this.driverTab.getLayout("Limelight", BuiltInLayouts.kGrid)
     .withSize(4, 1)
@@ -74,6 +83,11 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
     this.layout.addString("Distance I", () -> String.format("%.2f in", Units.metersToInches(this.calculatedDistanceMeters)))
             .withWidget(BuiltInWidgets.kTextView);
 
+    this.driverTab.addString("Pi Vision Age", () -> piVision.getLastTarget()
+      .map(target -> String.format("%.0f ms", target.getAgeSeconds(RobotController.getFPGATime()) * 1000))
+      .orElse("N/A"))
+    .withWidget(BuiltInWidgets.kTextView);
+
     useDriverPipeline();
 
     this.pixy2 = Pixy2.createInstance(new SPILink());
@@ -87,6 +101,14 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
     return limelight;
   }
 
+  public PiVision getPiVision() {
+    return piVision;
+  }
+
+  public PiBalls getPiBalls() {
+    return piBalls;
+  }
+
   public void usePortPipeline() {
     limelight.setPipeline(portPipeline);
     limelight.setStreamMode(StreamMode.PIP_MAIN);
@@ -109,6 +131,12 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
   public void periodic() {
     // This method will be called once per scheduler run
     calculateDistanceIfNeeded();
+    piVision.periodic();
+    if (PiBallConstants.ENABLED) {
+      // Power cells are found on the Pi, this only reads the latest frame's results
+      piBalls.periodic();
+      SmartDashboard.putNumber("Ball Count", piBalls.getBalls().size());
+    }
 
     if (usingPixy) {
       int blockCount = pixy2.getCCC().getBlocks(false, Pixy2CCC.CCC_SIG_ALL, 25);
@@ -139,7 +167,20 @@ public class VisionSystem extends SubsystemBase implements VerifiableSystem {
     return Optional.ofNullable(largestBlock);
   }
 
+  /**
+   * @return the closest power cell found on the Pi, empty when none was seen recently or the Pi has no ball camera
+   */
+  public Optional<PiBall> getClosestBall() {
+    if (!PiBallConstants.ENABLED) {
+      return Optional.empty();
+    }
+    return piBalls.getClosestBall(RobotController.getFPGATime(), PiBallConstants.MAX_AGE_S);
+  }
+
   public Optional<Double> getBallTargetDegrees() {
+    if (PiBallConstants.ENABLED) {
+      return getClosestBall().map(PiBall::getDegreesX);
+    }
     Optional<Block> blockOptional = getLargestBlock();
     if (blockOptional.isPresent()) {
       Block block = blockOptional.get();
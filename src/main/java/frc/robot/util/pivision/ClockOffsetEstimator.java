@@ -0,0 +1,63 @@
+package frc.robot.util.pivision;
+
+/**
+ * Estimates the offset between the robot FPGA clock and the Pi clock from ping round trips.
+ * Keeps the last few samples and trusts the one with the shortest round trip, since it has the least queueing delay.
+ */
+public class ClockOffsetEstimator {
+    private static final int SAMPLE_COUNT = 16;
+
+    private final long[] roundTrips = new long[SAMPLE_COUNT];
+    private final long[] offsets = new long[SAMPLE_COUNT];
+    private int samples = 0;
+    private int next = 0;
+    private long offset = 0;
+    private long bestRoundTrip = Long.MAX_VALUE;
+
+    /**
+     * @param sentTime robot time the ping was sent, microseconds
+     * @param piTime Pi time the ping was answered, microseconds
+     * @param receivedTime robot time the pong was received, microseconds
+     */
+    public void addSample(long sentTime, long piTime, long receivedTime) {
+        long roundTrip = receivedTime - sentTime;
+        if (roundTrip < 0) {
+            return;
+        }
+        roundTrips[next] = roundTrip;
+        // Assume the Pi answered half way through the round trip
+        offsets[next] = piTime - (sentTime + receivedTime) / 2;
+        next = (next + 1) % SAMPLE_COUNT;
+        samples = Math.min(samples + 1, SAMPLE_COUNT);
+
+        bestRoundTrip = Long.MAX_VALUE;
+        for (int i = 0; i < samples; i++) {
+            if (roundTrips[i] < bestRoundTrip) {
+                bestRoundTrip = roundTrips[i];
+                offset = offsets[i];
+            }
+        }
+    }
+
+    public boolean hasEstimate() {
+        return samples > 0;
+    }
+
+    /**
+     * @return Pi time minus robot time, microseconds
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return round trip of the sample the offset came from, microseconds. The offset error is at most half of it
+     */
+    public long getRoundTrip() {
+        return bestRoundTrip;
+    }
+
+    public long toRobotTime(long piTime) {
+        return piTime - offset;
+    }
+}
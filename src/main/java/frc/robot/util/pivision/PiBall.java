@@ -0,0 +1,67 @@
+package frc.robot.util.pivision;
+
+/**
+ * A power cell found by recharge-vision in one frame
+ */
+public class PiBall {
+    private double degreesX, degreesY, distanceMeters, x, y, diameter;
+    private long captureTime;
+
+    public PiBall(double degreesX, double degreesY, double distanceMeters, double x, double y, double diameter,
+                  long captureTime) {
+        this.degreesX = degreesX;
+        this.degreesY = degreesY;
+        this.distanceMeters = distanceMeters;
+        this.x = x;
+        this.y = y;
+        this.diameter = diameter;
+        this.captureTime = captureTime;
+    }
+
+    /**
+     * @return bearing to the ball, positive to the right
+     */
+    public double getDegreesX() {
+        return degreesX;
+    }
+
+    public double getDegreesY() {
+        return degreesY;
+    }
+
+    /**
+     * @return estimated from the ball's apparent size, metres from the camera
+     */
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * @return apparent diameter, pixels
+     */
+    public double getDiameter() {
+        return diameter;
+    }
+
+    /**
+     * @return robot FPGA time the frame was captured, microseconds
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * @return how old the frame is at the given robot FPGA time, seconds
+     */
+    public double getAgeSeconds(long robotTime) {
+        return (robotTime - captureTime) / 1e6;
+    }
+}
@@ -0,0 +1,114 @@
+package frc.robot.util.pivision;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads the power cells published by recharge-vision's ball detector, biggest (closest) first.
+ * Shares the clock offset of a {@link PiVision}, call {@link #periodic()} after its periodic every loop.
+ */
+public class PiBalls {
+    // Keep in sync with BallResultPublisher in recharge-vision, PiBallsTest pins the layout
+    private static final int SEQUENCE = 0;
+    private static final int CAPTURE_TIME = 1;
+    private static final int COUNT = 4;
+    private static final int HEADER_LENGTH = 5;
+    private static final int BALL_DEG_X = 0;
+    private static final int BALL_DEG_Y = 1;
+    private static final int BALL_DISTANCE = 2;
+    private static final int BALL_X = 3;
+    private static final int BALL_Y = 4;
+    private static final int BALL_DIAMETER = 5;
+    private static final int BALL_LENGTH = 6;
+
+    private static final double[] EMPTY = new double[0];
+
+    private NetworkTableEntry balls;
+    private ClockOffsetEstimator clockOffset;
+    private double lastSequence = -1;
+    private List<PiBall> lastBalls = Collections.emptyList();
+
+    /**
+     * @param branch pipeline graph branch ending in the ball detector
+     */
+    public PiBalls(String tableName, String branch, ClockOffsetEstimator clockOffset) {
+        this(tableName, null, branch, clockOffset);
+    }
+
+    /**
+     * @param camera name of the camera in recharge-vision's camera config, null for the first camera
+     * @param branch pipeline graph branch ending in the ball detector
+     */
+    public PiBalls(String tableName, String camera, String branch, ClockOffsetEstimator clockOffset) {
+        NetworkTable results = NetworkTableInstance.getDefault().getTable(tableName).getSubTable("results");
+        if (camera != null) {
+            results = results.getSubTable(camera);
+        }
+        this.balls = results.getSubTable(branch).getEntry("balls");
+        this.clockOffset = clockOffset;
+    }
+
+    public void periodic() {
+        double[] record = balls.getDoubleArray(EMPTY);
+        if (record.length < HEADER_LENGTH || record[SEQUENCE] == lastSequence || !clockOffset.hasEstimate()) {
+            return;
+        }
+        List<PiBall> found = decodeBalls(record, clockOffset);
+        if (found == null) {
+            return;
+        }
+        lastSequence = record[SEQUENCE];
+        lastBalls = Collections.unmodifiableList(found);
+    }
+
+    /**
+     * @return null when the record is shorter than its ball count says
+     */
+    static List<PiBall> decodeBalls(double[] record, ClockOffsetEstimator clockOffset) {
+        if (record.length < HEADER_LENGTH) {
+            return null;
+        }
+        int count = (int) record[COUNT];
+        if (count < 0 || record.length < HEADER_LENGTH + count * BALL_LENGTH) {
+            return null;
+        }
+        long captureTime = clockOffset.toRobotTime((long) record[CAPTURE_TIME]);
+        List<PiBall> found = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = HEADER_LENGTH + i * BALL_LENGTH;
+            found.add(new PiBall(
+                    record[offset + BALL_DEG_X],
+                    record[offset + BALL_DEG_Y],
+                    record[offset + BALL_DISTANCE],
+                    record[offset + BALL_X],
+                    record[offset + BALL_Y],
+                    record[offset + BALL_DIAMETER],
+                    captureTime));
+        }
+        return found;
+    }
+
+    /**
+     * @return balls in the latest frame, closest first
+     */
+    public List<PiBall> getBalls() {
+        return lastBalls;
+    }
+
+    /**
+     * @param maxAgeSeconds ignore frames older than this, e.g. when the Pi stopped publishing
+     */
+    public Optional<PiBall> getClosestBall(long robotTime, double maxAgeSeconds) {
+        if (lastBalls.isEmpty()) {
+            return Optional.empty();
+        }
+        PiBall ball = lastBalls.get(0);
+        return ball.getAgeSeconds(robotTime) <= maxAgeSeconds ? Optional.of(ball) : Optional.empty();
+    }
+}
@@ -0,0 +1,101 @@
+package frc.robot.util.pivision;
+
+public class PiTarget {
+    private long sequence;
+    private double x, y, degreesX, degreesY, area;
+    private long captureTime, processedTime, publishTime;
+    private boolean poseValid;
+    private double range, bearing, skew;
+
+    public PiTarget(long sequence, double x, double y, double degreesX, double degreesY, double area,
+                    long captureTime, long processedTime, long publishTime,
+                    boolean poseValid, double range, double bearing, double skew) {
+        this.sequence = sequence;
+        this.x = x;
+        this.y = y;
+        this.degreesX = degreesX;
+        this.degreesY = degreesY;
+        this.area = area;
+        this.captureTime = captureTime;
+        this.processedTime = processedTime;
+        this.publishTime = publishTime;
+        this.poseValid = poseValid;
+        this.range = range;
+        this.bearing = bearing;
+        this.skew = skew;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getDegreesX() {
+        return degreesX;
+    }
+
+    public double getDegreesY() {
+        return degreesY;
+    }
+
+    public double getArea() {
+        return area;
+    }
+
+    /**
+     * @return robot FPGA time the frame was captured, microseconds
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public long getProcessedTime() {
+        return processedTime;
+    }
+
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * @return whether range, bearing and skew were solved for this frame
+     */
+    public boolean hasPose() {
+        return poseValid;
+    }
+
+    /**
+     * @return camera to port distance, metres
+     */
+    public double getRange() {
+        return range;
+    }
+
+    /**
+     * @return angle to the port, positive to the right, radians
+     */
+    public double getBearing() {
+        return bearing;
+    }
+
+    /**
+     * @return yaw of the port wall relative to the camera, 0 when square on, radians
+     */
+    public double getSkew() {
+        return skew;
+    }
+
+    /**
+     * @return how old the frame is at the given robot FPGA time, seconds
+     */
+    public double getAgeSeconds(long robotTime) {
+        return (robotTime - captureTime) / 1e6;
+    }
+}
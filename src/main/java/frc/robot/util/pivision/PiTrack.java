@@ -0,0 +1,111 @@
+package frc.robot.util.pivision;
+
+/**
+ * Kalman filtered target from recharge-vision. Each quantity has a value, a rate per second and their covariance.
+ */
+public class PiTrack {
+    // Keep in sync with TargetTracker in recharge-vision
+    public static final int STATE_NONE = 0;
+    public static final int STATE_MEASURED = 1;
+    public static final int STATE_PREDICTED = 2;
+
+    private long sequence;
+    private int state;
+    private long captureTime, lastMeasuredTime;
+    private Estimate degreesX, degreesY, area;
+
+    public PiTrack(long sequence, int state, long captureTime, long lastMeasuredTime,
+                   Estimate degreesX, Estimate degreesY, Estimate area) {
+        this.sequence = sequence;
+        this.state = state;
+        this.captureTime = captureTime;
+        this.lastMeasuredTime = lastMeasuredTime;
+        this.degreesX = degreesX;
+        this.degreesY = degreesY;
+        this.area = area;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return whether this frame had a target or was predicted through a dropout
+     */
+    public int getState() {
+        return state;
+    }
+
+    public boolean isPredicted() {
+        return state == STATE_PREDICTED;
+    }
+
+    /**
+     * @return robot FPGA time of the frame the estimate is for, microseconds
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * @return robot FPGA time of the last frame that had a target, microseconds
+     */
+    public long getLastMeasuredTime() {
+        return lastMeasuredTime;
+    }
+
+    public Estimate getDegreesX() {
+        return degreesX;
+    }
+
+    public Estimate getDegreesY() {
+        return degreesY;
+    }
+
+    public Estimate getArea() {
+        return area;
+    }
+
+    /**
+     * @return horizontal angle extrapolated to the given robot FPGA time, to make up for the pipeline latency
+     */
+    public double getDegreesXAt(long robotTime) {
+        return degreesX.getValueAt((robotTime - captureTime) / 1e6);
+    }
+
+    public static class Estimate {
+        private double value, rate, valueVariance, covariance, rateVariance;
+
+        public Estimate(double value, double rate, double valueVariance, double covariance, double rateVariance) {
+            this.value = value;
+            this.rate = rate;
+            this.valueVariance = valueVariance;
+            this.covariance = covariance;
+            this.rateVariance = rateVariance;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public double getValueAt(double secondsLater) {
+            return value + rate * secondsLater;
+        }
+
+        public double getValueVariance() {
+            return valueVariance;
+        }
+
+        public double getCovariance() {
+            return covariance;
+        }
+
+        public double getRateVariance() {
+            return rateVariance;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package frc.robot.util.pivision;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.RobotController;
+
+import java.util.Optional;
+
+/**
+ * Reads target records published by recharge-vision and converts their timestamps to robot FPGA time.
+ * Call {@link #periodic()} every loop, it pings the Pi clock and picks up the latest record.
+ */
+public class PiVision {
+    // Keep in sync with TargetResultPublisher in recharge-vision, PiVisionTest pins the layout
+    private static final int SEQUENCE = 0;
+    private static final int CAPTURE_TIME = 1;
+    private static final int VALID = 2;
+    private static final int X = 3;
+    private static final int Y = 4;
+    private static final int DEG_X = 5;
+    private static final int DEG_Y = 6;
+    private static final int MIN_RECT_AREA = 7;
+    private static final int PROCESSED_TIME = 8;
+    private static final int PUBLISH_TIME = 9;
+    private static final int POSE_VALID = 10;
+    private static final int RANGE = 11;
+    private static final int BEARING = 12;
+    private static final int SKEW = 13;
+    private static final int LENGTH = 14;
+    private static final int TRACK_SEQUENCE = 0;
+    private static final int TRACK_CAPTURE_TIME = 1;
+    private static final int TRACK_STATE = 2;
+    private static final int TRACK_LAST_MEASURED_TIME = 3;
+    private static final int TRACK_DEG_X = 4;
+    private static final int TRACK_DEG_Y = 9;
+    private static final int TRACK_AREA = 14;
+    private static final int TRACK_LENGTH = 19;
+
+    // Ping every 10 loops, the offset drifts slowly
+    private static final int PING_PERIOD_LOOPS = 10;
+    private static final double[] EMPTY = new double[0];
+
+    private NetworkTableEntry ping, pong, target, track;
+    private ClockOffsetEstimator clockOffset = new ClockOffsetEstimator();
+    private double lastPongSent = 0;
+    private double lastSequence = -1;
+    private int loops = 0;
+    private PiTarget lastTarget = null;
+    private boolean targetValid = false;
+    private double lastTrackSequence = -1;
+    private PiTrack lastTrack = null;
+
+    public PiVision() {
+        this("vision", "port");
+    }
+
+    /**
+     * @param branch pipeline graph branch whose results to read
+     */
+    public PiVision(String tableName, String branch) {
+        NetworkTable table = NetworkTableInstance.getDefault().getTable(tableName);
+        NetworkTable clock = table.getSubTable("clock");
+        this.ping = clock.getEntry("ping");
+        this.pong = clock.getEntry("pong");
+        NetworkTable results = table.getSubTable("results").getSubTable(branch);
+        this.target = results.getEntry("target");
+        this.track = results.getEntry("track");
+    }
+
+    public void periodic() {
+        long now = RobotController.getFPGATime();
+
+        double[] pongValue = pong.getDoubleArray(EMPTY);
+        if (pongValue.length == 2 && pongValue[0] != lastPongSent) {
+            lastPongSent = pongValue[0];
+            clockOffset.addSample((long) pongValue[0], (long) pongValue[1], now);
+        }
+        if (loops++ % PING_PERIOD_LOOPS == 0) {
+            ping.setDouble(now);
+            // Send now instead of on the next 100ms update, the delay would count as round trip
+            NetworkTableInstance.getDefault().flush();
+        }
+
+        readTrack();
+
+        double[] record = target.getDoubleArray(EMPTY);
+        if (record.length < LENGTH || record[SEQUENCE] == lastSequence || !clockOffset.hasEstimate()) {
+            return;
+        }
+        lastSequence = record[SEQUENCE];
+        PiTarget decoded = decodeTarget(record, clockOffset);
+        targetValid = decoded != null;
+        if (targetValid) {
+            lastTarget = decoded;
+        }
+    }
+
+    private void readTrack() {
+        double[] record = track.getDoubleArray(EMPTY);
+        if (record.length < TRACK_LENGTH || record[TRACK_SEQUENCE] == lastTrackSequence || !clockOffset.hasEstimate()) {
+            return;
+        }
+        lastTrackSequence = record[TRACK_SEQUENCE];
+        lastTrack = decodeTrack(record, clockOffset);
+    }
+
+    /**
+     * @return null when the record is too short or has no target
+     */
+    static PiTarget decodeTarget(double[] record, ClockOffsetEstimator clockOffset) {
+        if (record.length < LENGTH || record[VALID] <= 0) {
+            return null;
+        }
+        return new PiTarget(
+                (long) record[SEQUENCE],
+                record[X],
+                record[Y],
+                record[DEG_X],
+                record[DEG_Y],
+                record[MIN_RECT_AREA],
+                clockOffset.toRobotTime((long) record[CAPTURE_TIME]),
+                clockOffset.toRobotTime((long) record[PROCESSED_TIME]),
+                clockOffset.toRobotTime((long) record[PUBLISH_TIME]),
+                record[POSE_VALID] > 0,
+                record[RANGE],
+                record[BEARING],
+                record[SKEW]);
+    }
+
+    /**
+     * @return null when the record is too short
+     */
+    static PiTrack decodeTrack(double[] record, ClockOffsetEstimator clockOffset) {
+        if (record.length < TRACK_LENGTH) {
+            return null;
+        }
+        return new PiTrack(
+                (long) record[TRACK_SEQUENCE],
+                (int) record[TRACK_STATE],
+                clockOffset.toRobotTime((long) record[TRACK_CAPTURE_TIME]),
+                clockOffset.toRobotTime((long) record[TRACK_LAST_MEASURED_TIME]),
+                readEstimate(record, TRACK_DEG_X),
+                readEstimate(record, TRACK_DEG_Y),
+                readEstimate(record, TRACK_AREA));
+    }
+
+    private static PiTrack.Estimate readEstimate(double[] record, int offset) {
+        return new PiTrack.Estimate(record[offset], record[offset + 1], record[offset + 2], record[offset + 3],
+                record[offset + 4]);
+    }
+
+    /**
+     * @return the filtered target, measured or predicted through a short dropout, empty when there is no track
+     */
+    public Optional<PiTrack> getTrack() {
+        return lastTrack == null || lastTrack.getState() == PiTrack.STATE_NONE ? Optional.empty() : Optional.of(lastTrack);
+    }
+
+    public Optional<PiTarget> getTarget() {
+        return targetValid ? Optional.ofNullable(lastTarget) : Optional.empty();
+    }
+
+    public Optional<PiTarget> getLastTarget() {
+        return Optional.ofNullable(lastTarget);
+    }
+
+    public ClockOffsetEstimator getClockOffset() {
+        return clockOffset;
+    }
+}
@@ -0,0 +1,65 @@
+package frc.robot.util.pivision;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockOffsetEstimatorTest {
+    // Pi time minus robot time
+    private static final long OFFSET = 1_000_000;
+
+    /**
+     * Adds a ping sent at robot time sentTime that takes outbound microseconds to reach the Pi and back microseconds
+     * to return
+     */
+    private static void ping(ClockOffsetEstimator estimator, long sentTime, long outbound, long back) {
+        estimator.addSample(sentTime, sentTime + outbound + OFFSET, sentTime + outbound + back);
+    }
+
+    @Test
+    public void noEstimate() {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator();
+        assertFalse(estimator.hasEstimate());
+    }
+
+    @Test
+    public void symmetricDelay() {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator();
+        ping(estimator, 0, 2000, 2000);
+        assertTrue(estimator.hasEstimate());
+        assertEquals(OFFSET, estimator.getOffset());
+        assertEquals(4000, estimator.getRoundTrip());
+        assertEquals(500, estimator.toRobotTime(500 + OFFSET));
+    }
+
+    @Test
+    public void picksShortestRoundTrip() {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator();
+        // Queued on the way out, the midpoint assumption is off by 2250
+        ping(estimator, 0, 5000, 500);
+        ping(estimator, 10_000, 300, 200);
+        ping(estimator, 20_000, 500, 4000);
+        assertEquals(500, estimator.getRoundTrip());
+        assertEquals(OFFSET + 50, estimator.getOffset());
+        // The error is bounded by half the round trip however asymmetric the delays are
+        assertTrue(Math.abs(estimator.getOffset() - OFFSET) <= estimator.getRoundTrip() / 2);
+    }
+
+    @Test
+    public void ignoresNegativeRoundTrip() {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator();
+        estimator.addSample(1000, OFFSET, 500);
+        assertFalse(estimator.hasEstimate());
+    }
+
+    @Test
+    public void bestSampleAgesOut() {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator();
+        ping(estimator, 0, 100, 100);
+        for (int i = 1; i <= 16; i++) {
+            ping(estimator, i * 10_000, 3000, 1000);
+        }
+        assertEquals(4000, estimator.getRoundTrip());
+        assertEquals(OFFSET + 1000, estimator.getOffset());
+    }
+}
@@ -0,0 +1,67 @@
+package frc.robot.util.pivision;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static frc.robot.util.pivision.TestClock.OFFSET;
+import static frc.robot.util.pivision.TestClock.clockOffset;
+import static frc.robot.util.pivision.TestClock.dropLast;
+import static org.junit.Assert.*;
+
+public class PiBallsTest {
+    private static double[] ballsRecord(int count) {
+        double[] header = {
+                7,                  // sequence
+                OFFSET + 10_000,    // capture time
+                OFFSET + 15_000,    // processed time
+                OFFSET + 16_000,    // publish time
+                count
+        };
+        double[] balls = {
+                // degrees x, degrees y, distance, x, y, diameter
+                -5, 2, 1.2, 100, 300, 80,
+                12, 1, 2.5, 500, 260, 40
+        };
+        double[] record = new double[header.length + count * 6];
+        System.arraycopy(header, 0, record, 0, header.length);
+        System.arraycopy(balls, 0, record, header.length, count * 6);
+        return record;
+    }
+
+    @Test
+    public void decodeBalls() {
+        List<PiBall> balls = PiBalls.decodeBalls(ballsRecord(2), clockOffset());
+        assertNotNull(balls);
+        assertEquals(2, balls.size());
+
+        PiBall closest = balls.get(0);
+        assertEquals(-5, closest.getDegreesX(), 0);
+        assertEquals(2, closest.getDegreesY(), 0);
+        assertEquals(1.2, closest.getDistanceMeters(), 0);
+        assertEquals(100, closest.getX(), 0);
+        assertEquals(300, closest.getY(), 0);
+        assertEquals(80, closest.getDiameter(), 0);
+        assertEquals(10_000, closest.getCaptureTime());
+
+        PiBall second = balls.get(1);
+        assertEquals(12, second.getDegreesX(), 0);
+        assertEquals(2.5, second.getDistanceMeters(), 0);
+        assertEquals(40, second.getDiameter(), 0);
+        assertEquals(10_000, second.getCaptureTime());
+    }
+
+    @Test
+    public void decodeNoBalls() {
+        List<PiBall> balls = PiBalls.decodeBalls(ballsRecord(0), clockOffset());
+        assertNotNull(balls);
+        assertTrue(balls.isEmpty());
+    }
+
+    @Test
+    public void decodeShortRecord() {
+        // The count says two balls but the second one is cut off
+        assertNull(PiBalls.decodeBalls(dropLast(ballsRecord(2)), clockOffset()));
+        assertNull(PiBalls.decodeBalls(new double[]{7, OFFSET}, clockOffset()));
+    }
+}
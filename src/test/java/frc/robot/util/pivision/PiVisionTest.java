@@ -0,0 +1,116 @@
+package frc.robot.util.pivision;
+
+import org.junit.Test;
+
+import static frc.robot.util.pivision.TestClock.OFFSET;
+import static frc.robot.util.pivision.TestClock.clockOffset;
+import static frc.robot.util.pivision.TestClock.dropLast;
+import static org.junit.Assert.*;
+
+public class PiVisionTest {
+    private static double[] targetRecord(boolean valid) {
+        return new double[]{
+                42,                 // sequence
+                OFFSET + 10_000,    // capture time
+                valid ? 1 : 0,      // valid
+                320,                // x
+                240,                // y
+                -3.5,               // degrees x
+                7.25,               // degrees y
+                1500,               // min rect area
+                OFFSET + 20_000,    // processed time
+                OFFSET + 21_000,    // publish time
+                1,                  // pose valid
+                4.5,                // range
+                -0.1,               // bearing
+                0.3                 // skew
+        };
+    }
+
+    @Test
+    public void decodeValidTarget() {
+        PiTarget target = PiVision.decodeTarget(targetRecord(true), clockOffset());
+        assertNotNull(target);
+        assertEquals(42, target.getSequence());
+        assertEquals(10_000, target.getCaptureTime());
+        assertEquals(320, target.getX(), 0);
+        assertEquals(240, target.getY(), 0);
+        assertEquals(-3.5, target.getDegreesX(), 0);
+        assertEquals(7.25, target.getDegreesY(), 0);
+        assertEquals(1500, target.getArea(), 0);
+        assertEquals(20_000, target.getProcessedTime());
+        assertEquals(21_000, target.getPublishTime());
+    }
+
+    @Test
+    public void decodeTargetPose() {
+        PiTarget target = PiVision.decodeTarget(targetRecord(true), clockOffset());
+        assertTrue(target.hasPose());
+        assertEquals(4.5, target.getRange(), 0);
+        assertEquals(-0.1, target.getBearing(), 0);
+        assertEquals(0.3, target.getSkew(), 0);
+    }
+
+    @Test
+    public void decodeTargetWithoutPose() {
+        double[] record = targetRecord(true);
+        record[10] = 0;     // pose valid
+        PiTarget target = PiVision.decodeTarget(record, clockOffset());
+        assertNotNull(target);
+        assertFalse(target.hasPose());
+    }
+
+    @Test
+    public void decodeInvalidTarget() {
+        assertNull(PiVision.decodeTarget(targetRecord(false), clockOffset()));
+    }
+
+    @Test
+    public void decodeShortTarget() {
+        assertNull(PiVision.decodeTarget(dropLast(targetRecord(true)), clockOffset()));
+        assertNull(PiVision.decodeTarget(new double[0], clockOffset()));
+    }
+
+    private static double[] trackRecord() {
+        return new double[]{
+                43,                         // sequence
+                OFFSET + 30_000,            // capture time
+                PiTrack.STATE_PREDICTED,    // state
+                OFFSET + 25_000,            // last measured time
+                // degrees x, degrees y and area, each value, rate, value variance, covariance, rate variance
+                -2, 10, 0.5, 0.1, 4,
+                6, -1, 0.25, 0.05, 2,
+                1400, 50, 100, 10, 400
+        };
+    }
+
+    @Test
+    public void decodeTrack() {
+        PiTrack track = PiVision.decodeTrack(trackRecord(), clockOffset());
+        assertNotNull(track);
+        assertEquals(43, track.getSequence());
+        assertEquals(PiTrack.STATE_PREDICTED, track.getState());
+        assertTrue(track.isPredicted());
+        assertEquals(30_000, track.getCaptureTime());
+        assertEquals(25_000, track.getLastMeasuredTime());
+
+        PiTrack.Estimate degreesX = track.getDegreesX();
+        assertEquals(-2, degreesX.getValue(), 0);
+        assertEquals(10, degreesX.getRate(), 0);
+        assertEquals(0.5, degreesX.getValueVariance(), 0);
+        assertEquals(0.1, degreesX.getCovariance(), 0);
+        assertEquals(4, degreesX.getRateVariance(), 0);
+        assertEquals(6, track.getDegreesY().getValue(), 0);
+        assertEquals(2, track.getDegreesY().getRateVariance(), 0);
+        assertEquals(1400, track.getArea().getValue(), 0);
+        assertEquals(400, track.getArea().getRateVariance(), 0);
+
+        // 0.1 s after capture at 10 degrees per second
+        assertEquals(-1, track.getDegreesXAt(130_000), 1e-9);
+    }
+
+    @Test
+    public void decodeShortTrack() {
+        assertNull(PiVision.decodeTrack(dropLast(trackRecord()), clockOffset()));
+    }
+}
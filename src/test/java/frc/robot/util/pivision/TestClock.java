@@ -0,0 +1,24 @@
+package frc.robot.util.pivision;
+
+/**
+ * Shared setup for decoding records, which carry Pi timestamps
+ */
+final class TestClock {
+    // Pi time minus robot time
+    static final long OFFSET = 1_000_000;
+
+    private TestClock() {
+    }
+
+    static ClockOffsetEstimator clockOffset() {
+        ClockOffsetEstimator clockOffset = new ClockOffsetEstimator();
+        clockOffset.addSample(0, OFFSET + 1000, 2000);
+        return clockOffset;
+    }
+
+    static double[] dropLast(double[] record) {
+        double[] truncated = new double[record.length - 1];
+        System.arraycopy(record, 0, truncated, 0, truncated.length);
+        return truncated;
+    }
+}